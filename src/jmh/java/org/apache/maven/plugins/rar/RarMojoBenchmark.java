@@ -0,0 +1,327 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.plugins.rar;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.maven.archiver.MavenArchiveConfiguration;
+import org.apache.maven.archiver.MavenArchiver;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.model.Build;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.Resource;
+import org.apache.maven.model.io.xpp3.MavenXpp3Writer;
+import org.apache.maven.plugin.testing.SilentLog;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.shared.filtering.DefaultMavenFileFilter;
+import org.apache.maven.shared.filtering.DefaultMavenResourcesFiltering;
+import org.apache.maven.shared.filtering.MavenResourcesExecution;
+import org.apache.maven.shared.filtering.MavenResourcesFiltering;
+import org.codehaus.plexus.archiver.jar.JarArchiver;
+import org.codehaus.plexus.archiver.util.DefaultFileSet;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.ReflectionUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sonatype.plexus.build.incremental.DefaultBuildContext;
+
+/**
+ * Measures the phases of the RAR packaging against a synthetic project: copying the dependencies to the work
+ * directory, with file channels or with streams, copying and filtering the resources, assembling the archive with the
+ * plexus archiver or in parallel, and the whole {@link RarMojo#execute()} with each archive backend. Run with the
+ * <code>benchmarks</code> profile, which also reports the allocation rate of every phase.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RarMojoBenchmark {
+    /**
+     * The number of dependency jars packaged in the RAR.
+     */
+    @Param({"10", "100", "1000"})
+    public int dependencies;
+
+    /**
+     * The uncompressed size of every dependency jar in bytes, which drives the size of the archive.
+     */
+    @Param({"16384", "262144"})
+    public int dependencySize;
+
+    /**
+     * The number of files in the RAR source directory.
+     */
+    @Param({"10", "1000"})
+    public int resources;
+
+    /**
+     * Whether the resources are filtered.
+     */
+    @Param({"false", "true"})
+    public boolean filtering;
+
+    private File baseDirectory;
+
+    private File sourceDirectory;
+
+    private File stagedDirectory;
+
+    private File workDirectory;
+
+    private File outputDirectory;
+
+    private File metadata;
+
+    private MavenProject project;
+
+    private Map<String, File> libraries;
+
+    private MavenResourcesFiltering resourcesFiltering;
+
+    @Setup(Level.Trial)
+    public void createProject() throws Exception {
+        baseDirectory = Files.createTempDirectory("rar-benchmark").toFile();
+        sourceDirectory = new File(baseDirectory, "src/main/rar");
+        stagedDirectory = new File(baseDirectory, "target/staged");
+        workDirectory = new File(baseDirectory, "target/rar-benchmark-1.0");
+        outputDirectory = new File(baseDirectory, "target");
+
+        Model model = new Model();
+        model.setGroupId("org.apache.maven.benchmark");
+        model.setArtifactId("rar-benchmark");
+        model.setVersion("1.0");
+        model.setPackaging("rar");
+        model.setBuild(new Build());
+        model.getBuild().setDirectory(outputDirectory.getPath());
+        project = new MavenProject(model);
+        File pom = new File(baseDirectory, "pom.xml");
+        try (Writer writer = Files.newBufferedWriter(pom.toPath(), StandardCharsets.UTF_8)) {
+            new MavenXpp3Writer().write(writer, model);
+        }
+        project.setFile(pom);
+        project.setArtifact(new DefaultArtifact(
+                "org.apache.maven.benchmark",
+                "rar-benchmark",
+                "1.0",
+                Artifact.SCOPE_COMPILE,
+                "rar",
+                null,
+                new DefaultArtifactHandler("rar")));
+
+        Random random = new Random(dependencies * 31L + dependencySize);
+        File repository = new File(baseDirectory, "repository");
+        DefaultArtifactHandler jarHandler = new DefaultArtifactHandler("jar");
+        jarHandler.setAddedToClasspath(true);
+        Set<Artifact> artifacts = new LinkedHashSet<>();
+        libraries = new LinkedHashMap<>();
+        for (int i = 0; i < dependencies; i++) {
+            File jar = new File(repository, "dependency-" + i + "-1.0.jar");
+            writeJar(jar, random);
+            Artifact artifact = new DefaultArtifact(
+                    "org.apache.maven.benchmark",
+                    "dependency-" + i,
+                    "1.0",
+                    Artifact.SCOPE_COMPILE,
+                    "jar",
+                    null,
+                    jarHandler);
+            artifact.setFile(jar);
+            artifacts.add(artifact);
+            libraries.put(jar.getName(), jar);
+        }
+        project.setArtifacts(artifacts);
+
+        for (int i = 0; i < resources; i++) {
+            File resource = new File(sourceDirectory, "META-INF/config/" + (i % 10) + "/resource-" + i + ".properties");
+            resource.getParentFile().mkdirs();
+            try (Writer writer = Files.newBufferedWriter(resource.toPath(), StandardCharsets.UTF_8)) {
+                for (int line = 0; line < 20; line++) {
+                    writer.write("key." + line + "=${project.artifactId} ${project.version} value " + line + "\n");
+                }
+            }
+        }
+
+        DefaultBuildContext buildContext = new DefaultBuildContext();
+        resourcesFiltering =
+                new DefaultMavenResourcesFiltering(new DefaultMavenFileFilter(buildContext), buildContext);
+
+        // the input of the archiving phases
+        new FileStager(1, StagingStrategy.COPY, null).stage(libraries, stagedDirectory);
+        filterResources(stagedDirectory);
+        metadata = new File(outputDirectory, "metadata.jar");
+        MavenArchiver archiver = newArchiver(metadata);
+        archiver.createArchive(null, project, new MavenArchiveConfiguration());
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteProject() throws IOException {
+        FileUtils.deleteDirectory(baseDirectory);
+    }
+
+    @Setup(Level.Invocation)
+    public void cleanWorkDirectory() throws IOException {
+        FileUtils.deleteDirectory(workDirectory);
+    }
+
+    @Benchmark
+    public void copyDependencies() throws IOException {
+        new FileStager(1, StagingStrategy.COPY, null).stage(libraries, workDirectory);
+    }
+
+    /**
+     * The stream based copy the dependencies were staged with before {@link FileStager} transferred them with file
+     * channels, for comparison with {@link #copyDependencies()}.
+     */
+    @Benchmark
+    public void copyDependenciesWithStreams() throws IOException {
+        for (Map.Entry<String, File> library : libraries.entrySet()) {
+            FileUtils.copyFile(library.getValue(), new File(workDirectory, library.getKey()));
+        }
+    }
+
+    @Benchmark
+    public void copyResources() throws Exception {
+        filterResources(workDirectory);
+    }
+
+    @Benchmark
+    public File assembleWithPlexusArchiver() throws Exception {
+        File rarFile = new File(outputDirectory, "plexus.rar");
+        MavenArchiver archiver = newArchiver(rarFile);
+        archiver.getArchiver().addFileSet(DefaultFileSet.fileSet(stagedDirectory));
+        archiver.createArchive(null, project, new MavenArchiveConfiguration());
+        return rarFile;
+    }
+
+    @Benchmark
+    public File assembleInParallel() throws IOException {
+        Map<String, File> files = new LinkedHashMap<>();
+        for (String path : FileUtils.getFileNames(stagedDirectory, null, null, false)) {
+            files.put(path.replace(File.separatorChar, '/'), new File(stagedDirectory, path));
+        }
+        File rarFile = new File(outputDirectory, "parallel.rar");
+        new RarArchiveWriter(
+                        Runtime.getRuntime().availableProcessors(),
+                        1048576,
+                        true,
+                        new CompressionPolicy(null, null),
+                        null)
+                .write(metadata, files, rarFile);
+        return rarFile;
+    }
+
+    @Benchmark
+    public void execute() throws Exception {
+        execute("plexus");
+    }
+
+    @Benchmark
+    public void executeWithDirectBackend() throws Exception {
+        execute("direct");
+    }
+
+    private void execute(String archiveBackend) throws Exception {
+        RarMojo mojo = new RarMojo(new JarArchiver(), resourcesFiltering, null, new RarDependencyCache());
+        mojo.setLog(new SilentLog());
+        ReflectionUtils.setVariableValueInObject(mojo, "project", project);
+        ReflectionUtils.setVariableValueInObject(mojo, "rarSourceDirectory", sourceDirectory);
+        ReflectionUtils.setVariableValueInObject(mojo, "filterRarSourceDirectory", filtering);
+        ReflectionUtils.setVariableValueInObject(mojo, "includeJar", Boolean.FALSE);
+        ReflectionUtils.setVariableValueInObject(mojo, "manifestFile", new File(sourceDirectory, "MANIFEST.MF"));
+        ReflectionUtils.setVariableValueInObject(mojo, "workDirectory", workDirectory.getPath());
+        ReflectionUtils.setVariableValueInObject(mojo, "outputDirectory", outputDirectory);
+        ReflectionUtils.setVariableValueInObject(mojo, "finalName", "rar-benchmark-1.0");
+        ReflectionUtils.setVariableValueInObject(mojo, "encoding", "UTF-8");
+        ReflectionUtils.setVariableValueInObject(mojo, "archiveBackend", archiveBackend);
+        mojo.execute();
+    }
+
+    private void filterResources(File targetDirectory) throws Exception {
+        Resource resource = new Resource();
+        resource.setDirectory(sourceDirectory.getAbsolutePath());
+        resource.setFiltering(filtering);
+        MavenResourcesExecution execution = new MavenResourcesExecution(
+                Collections.singletonList(resource),
+                targetDirectory,
+                project,
+                "UTF-8",
+                Collections.<String>emptyList(),
+                Collections.<String>emptyList(),
+                null);
+        execution.setInjectProjectBuildFilters(false);
+        execution.setOverwrite(true);
+        resourcesFiltering.filterResources(execution);
+    }
+
+    private static MavenArchiver newArchiver(File outputFile) {
+        MavenArchiver archiver = new MavenArchiver();
+        archiver.setArchiver(new JarArchiver());
+        archiver.setCreatedBy("Maven RAR Plugin", "org.apache.maven.plugins", "maven-rar-plugin");
+        archiver.setOutputFile(outputFile);
+        return archiver;
+    }
+
+    /**
+     * Writes a jar of about <code>dependencySize</code> bytes whose entries compress like class files do.
+     */
+    private void writeJar(File jar, Random random) throws IOException {
+        jar.getParentFile().mkdirs();
+        byte[] content = new byte[4096];
+        try (OutputStream out = Files.newOutputStream(jar.toPath());
+                ZipOutputStream zip = new ZipOutputStream(out)) {
+            for (int written = 0, i = 0; written < dependencySize; written += content.length, i++) {
+                for (int b = 0; b < content.length; b++) {
+                    content[b] = (byte) ('a' + random.nextInt(random.nextBoolean() ? 4 : 26));
+                }
+                zip.putNextEntry(new ZipEntry("org/apache/maven/benchmark/Class" + i + ".class"));
+                zip.write(content);
+                zip.closeEntry();
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.plugins.rar;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Indexes the runtime visible annotations of the classes in the jars of a RAR, so that a container can find the
+ * connector classes without scanning every class when the RAR is deployed. Each line of the index is
+ * <code>annotation element jar</code>, sorted, where the element is a class, <code>class#field</code> or
+ * <code>class#method(descriptor)</code> and the jar is its path inside the RAR.
+ * <p>
+ * The annotations found in a jar are cached by the hash of its content, so a jar is only scanned again when it
+ * changed. Jars are hashed and scanned in parallel.
+ */
+final class AnnotationIndex {
+    private final File cacheFile;
+
+    /**
+     * The cached annotations of the jars keyed by the hash of their content, each as <code>annotation\telement</code>.
+     */
+    private final Map<String, List<String>> cache = new HashMap<>();
+
+    private final Log log;
+
+    private final AtomicLong scannedBytes = new AtomicLong();
+
+    /**
+     * Loads the cache.
+     *
+     * @param cacheFile the file the annotations of the jars are cached in
+     * @param log the log for unreadable jars and classes
+     * @throws IOException if the cache file exists but could not be read
+     */
+    AnnotationIndex(File cacheFile, Log log) throws IOException {
+        this.cacheFile = cacheFile;
+        this.log = log;
+        if (cacheFile.isFile()) {
+            for (String line : Files.readAllLines(cacheFile.toPath(), StandardCharsets.UTF_8)) {
+                String[] fields = line.split("\t");
+                List<String> annotations = cache.computeIfAbsent(fields[0], hash -> new ArrayList<>());
+                if (fields.length == 3) {
+                    annotations.add(fields[1] + '\t' + fields[2]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Indexes the jars and stores the cache, which then only holds the jars of this build.
+     *
+     * @param jars the jars keyed by their path inside the RAR
+     * @param threads the maximum number of jars scanned at the same time
+     * @return the lines of the index
+     * @throws IOException if a jar could not be read or the cache could not be written
+     */
+    List<String> index(Map<String, File> jars, int threads) throws IOException {
+        List<Callable<String>> tasks = new ArrayList<>(jars.size());
+        Map<String, List<String>> scanned = new ConcurrentHashMap<>();
+        for (File jar : jars.values()) {
+            tasks.add(() -> {
+                String hash = InputsFingerprint.hash(jar);
+                if (!cache.containsKey(hash) && !scanned.containsKey(hash)) {
+                    scanned.put(hash, scan(jar));
+                }
+                return hash;
+            });
+        }
+        List<String> hashes = ParallelTasks.invokeAll(tasks, threads);
+        cache.putAll(scanned);
+
+        Set<String> lines = new TreeSet<>();
+        Map<String, List<String>> used = new TreeMap<>();
+        int i = 0;
+        for (String path : jars.keySet()) {
+            String hash = hashes.get(i++);
+            List<String> annotations = cache.get(hash);
+            used.put(hash, annotations);
+            for (String annotation : annotations) {
+                lines.add(annotation.replace('\t', ' ') + ' ' + path);
+            }
+        }
+
+        List<String> content = new ArrayList<>();
+        for (Map.Entry<String, List<String>> entry : used.entrySet()) {
+            if (entry.getValue().isEmpty()) {
+                content.add(entry.getKey());
+            }
+            for (String annotation : entry.getValue()) {
+                content.add(entry.getKey() + '\t' + annotation);
+            }
+        }
+        Files.write(cacheFile.toPath(), content, StandardCharsets.UTF_8);
+        return new ArrayList<>(lines);
+    }
+
+    /**
+     * @return the number of bytes of the jars that were scanned, not found in the cache
+     */
+    long getScannedBytes() {
+        return scannedBytes.get();
+    }
+
+    private List<String> scan(File jar) throws IOException {
+        List<String> annotations = new ArrayList<>();
+        try (ZipFile zip = new ZipFile(jar)) {
+            for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements(); ) {
+                ZipEntry entry = e.nextElement();
+                String name = entry.getName();
+                // multi-release variants hold the same classes as the base entries
+                if (entry.isDirectory()
+                        || !name.endsWith(".class")
+                        || name.startsWith("META-INF/")
+                        || name.endsWith("module-info.class")) {
+                    continue;
+                }
+                try (InputStream in = zip.getInputStream(entry)) {
+                    ClassFile classFile = ClassFile.read(in);
+                    for (Map.Entry<String, Set<String>> element : classFile.getAnnotations().entrySet()) {
+                        for (String annotation : element.getValue()) {
+                            annotations.add(annotation + '\t' + element.getKey());
+                        }
+                    }
+                } catch (IOException ex) {
+                    log.warn("Could not read " + name + " in " + jar + ": " + ex.getMessage());
+                }
+            }
+        } catch (ZipException e) {
+            log.warn("Could not index " + jar + ", it is not a valid jar: " + e.getMessage());
+        }
+        scannedBytes.addAndGet(jar.length());
+        return annotations;
+    }
+}
@@ -0,0 +1,318 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.plugins.rar;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * The parts of a class file the plugin needs, read straight from the bytes of the class without loading it. Class
+ * names are binary names with dots, like <code>java.lang.String</code>.
+ */
+final class ClassFile {
+    private static final int MAGIC = 0xCAFEBABE;
+
+    private static final String RUNTIME_VISIBLE_ANNOTATIONS = "RuntimeVisibleAnnotations";
+
+    private final String name;
+
+    private final Map<String, Set<String>> annotations = new TreeMap<>();
+
+    private final Set<String> references = new HashSet<>();
+
+    private String[] utf8;
+
+    private int[] classNames;
+
+    private int[] strings;
+
+    private ClassFile(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a class file");
+        }
+        // minor and major version
+        in.readInt();
+        readConstantPool(in);
+
+        // access flags
+        in.readUnsignedShort();
+        name = getClassName(in.readUnsignedShort());
+        // super class
+        in.readUnsignedShort();
+        skip(in, 2 * in.readUnsignedShort());
+
+        for (int members = 0; members < 2; members++) {
+            boolean fields = members == 0;
+            for (int i = in.readUnsignedShort(); i > 0; i--) {
+                in.readUnsignedShort();
+                String memberName = utf8[in.readUnsignedShort()];
+                String descriptor = utf8[in.readUnsignedShort()];
+                readAttributes(in, name + '#' + memberName + (fields ? "" : descriptor));
+            }
+        }
+        readAttributes(in, name);
+        collectReferences();
+    }
+
+    /**
+     * Reads a class file.
+     *
+     * @param in the content of the class file, not closed
+     * @return the class file
+     * @throws IOException if the content could not be read or is not a valid class file
+     */
+    static ClassFile read(InputStream in) throws IOException {
+        try {
+            return new ClassFile(new DataInputStream(in));
+        } catch (ArrayIndexOutOfBoundsException | NullPointerException e) {
+            throw new IOException("Malformed class file", e);
+        }
+    }
+
+    /**
+     * @return the binary name of the class
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * The runtime visible annotations of the class and its members. The class itself is named by its name, a field by
+     * <code>class#field</code> and a method by <code>class#method(descriptor)</code>, e.g.
+     * <code>com.example.Foo#bar(Ljava/lang/String;)V</code>.
+     *
+     * @return the names of the annotation types, keyed by the annotated element
+     */
+    Map<String, Set<String>> getAnnotations() {
+        return Collections.unmodifiableMap(annotations);
+    }
+
+    /**
+     * The classes the class may refer to: the classes of its constant pool, the classes of all descriptors and
+     * signatures, which includes the class literals of annotations, and the string constants that look like class
+     * names, as used for reflection. This is more than the class actually needs, which is fine to decide what to keep.
+     *
+     * @return the binary names of the referenced classes
+     */
+    Set<String> getReferencedClasses() {
+        return Collections.unmodifiableSet(references);
+    }
+
+    private void collectReferences() {
+        for (int i = 1; i < utf8.length; i++) {
+            if (classNames[i] != 0) {
+                String className = utf8[classNames[i]];
+                if (className.startsWith("[")) {
+                    addDescriptorReferences(className);
+                } else {
+                    references.add(className.replace('/', '.'));
+                }
+            } else if (strings[i] != 0) {
+                String value = utf8[strings[i]];
+                if (isClassName(value)) {
+                    references.add(value);
+                }
+            } else if (utf8[i] != null && utf8[i].indexOf(';') > 0) {
+                addDescriptorReferences(utf8[i]);
+            }
+        }
+        references.remove(name);
+    }
+
+    /**
+     * Adds the classes of a descriptor or signature, i.e. every <code>Lname;</code> and <code>Lname&lt;</code>.
+     */
+    private void addDescriptorReferences(String descriptor) {
+        for (int start = descriptor.indexOf('L'); start >= 0; start = descriptor.indexOf('L', start + 1)) {
+            int end = start + 1;
+            while (end < descriptor.length() && isNamePart(descriptor.charAt(end))) {
+                end++;
+            }
+            if (end < descriptor.length()
+                    && end > start + 1
+                    && (descriptor.charAt(end) == ';' || descriptor.charAt(end) == '<')) {
+                references.add(descriptor.substring(start + 1, end).replace('/', '.'));
+                start = end;
+            }
+        }
+    }
+
+    private static boolean isNamePart(char c) {
+        return c != ';' && c != '<' && c != '>' && c != '(' && c != ')' && c != '[' && c != ':' && c != '.';
+    }
+
+    private static boolean isClassName(String value) {
+        if (value.isEmpty() || value.length() > 512) {
+            return false;
+        }
+        boolean start = true;
+        for (char c : value.toCharArray()) {
+            if (start ? !Character.isJavaIdentifierStart(c) : c != '.' && !Character.isJavaIdentifierPart(c)) {
+                return false;
+            }
+            start = c == '.';
+        }
+        return !start && value.indexOf('.') > 0;
+    }
+
+    private void readConstantPool(DataInputStream in) throws IOException {
+        int count = in.readUnsignedShort();
+        utf8 = new String[count];
+        classNames = new int[count];
+        strings = new int[count];
+        for (int i = 1; i < count; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case 1: // Utf8
+                    utf8[i] = in.readUTF();
+                    break;
+                case 7: // Class
+                    classNames[i] = in.readUnsignedShort();
+                    break;
+                case 8: // String
+                    strings[i] = in.readUnsignedShort();
+                    break;
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    skip(in, 2);
+                    break;
+                case 15: // MethodHandle
+                    skip(in, 3);
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    skip(in, 4);
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    skip(in, 8);
+                    // takes two entries of the pool
+                    i++;
+                    break;
+                default:
+                    throw new IOException("Unknown constant pool tag " + tag);
+            }
+        }
+    }
+
+    private void readAttributes(DataInputStream in, String element) throws IOException {
+        for (int i = in.readUnsignedShort(); i > 0; i--) {
+            String attribute = utf8[in.readUnsignedShort()];
+            int length = in.readInt();
+            if (RUNTIME_VISIBLE_ANNOTATIONS.equals(attribute)) {
+                byte[] content = new byte[length];
+                in.readFully(content);
+                readAnnotations(new DataInputStream(new ByteArrayInputStream(content)), element);
+            } else {
+                skip(in, length);
+            }
+        }
+    }
+
+    private void readAnnotations(DataInputStream in, String element) throws IOException {
+        List<String> types = new ArrayList<>();
+        for (int i = in.readUnsignedShort(); i > 0; i--) {
+            types.add(readAnnotation(in));
+        }
+        if (!types.isEmpty()) {
+            annotations.computeIfAbsent(element, e -> new TreeSet<>()).addAll(types);
+        }
+    }
+
+    /**
+     * Reads an annotation structure, skipping its element values.
+     *
+     * @return the name of the annotation type
+     */
+    private String readAnnotation(DataInputStream in) throws IOException {
+        String type = toClassName(utf8[in.readUnsignedShort()]);
+        for (int i = in.readUnsignedShort(); i > 0; i--) {
+            in.readUnsignedShort();
+            skipElementValue(in);
+        }
+        return type;
+    }
+
+    private void skipElementValue(DataInputStream in) throws IOException {
+        int tag = in.readUnsignedByte();
+        switch (tag) {
+            case 'e':
+                skip(in, 4);
+                break;
+            case '@':
+                readAnnotation(in);
+                break;
+            case '[':
+                for (int i = in.readUnsignedShort(); i > 0; i--) {
+                    skipElementValue(in);
+                }
+                break;
+            default:
+                // B C D F I J S Z s c
+                skip(in, 2);
+        }
+    }
+
+    private String getClassName(int index) {
+        return utf8[classNames[index]].replace('/', '.');
+    }
+
+    /**
+     * @param descriptor a field descriptor of a class type, like <code>Ljava/lang/String;</code>
+     * @return the binary name of the class
+     */
+    private static String toClassName(String descriptor) {
+        if (descriptor.startsWith("L") && descriptor.endsWith(";")) {
+            return descriptor.substring(1, descriptor.length() - 1).replace('/', '.');
+        }
+        return descriptor.replace('/', '.');
+    }
+
+    private static void skip(DataInputStream in, int bytes) throws IOException {
+        int remaining = bytes;
+        while (remaining > 0) {
+            int skipped = in.skipBytes(remaining);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+    }
+}
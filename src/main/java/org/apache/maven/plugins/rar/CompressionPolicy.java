@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.plugins.rar;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.codehaus.plexus.util.SelectorUtils;
+
+/**
+ * Decides which entries of the RAR are stored instead of deflated. Deflating content that is already compressed, like
+ * the libraries of the RAR, costs time and hardly makes the archive any smaller.
+ */
+final class CompressionPolicy {
+    /**
+     * The patterns of the files stored by default, archives and other compressed formats.
+     */
+    static final List<String> DEFAULT_STORE_INCLUDES = Collections.unmodifiableList(Arrays.asList(
+            "**/*.jar",
+            "**/*.war",
+            "**/*.ear",
+            "**/*.rar",
+            "**/*.sar",
+            "**/*.zip",
+            "**/*.gz",
+            "**/*.tgz",
+            "**/*.bz2",
+            "**/*.xz",
+            "**/*.7z",
+            "**/*.png",
+            "**/*.jpg",
+            "**/*.jpeg",
+            "**/*.gif"));
+
+    /**
+     * Deflates every entry.
+     */
+    static final CompressionPolicy DEFLATE_ALL = new CompressionPolicy(Collections.emptyList(), null);
+
+    private final List<String> includes;
+
+    private final List<String> excludes;
+
+    /**
+     * @param includes the patterns of the paths to store, <code>null</code> for {@link #DEFAULT_STORE_INCLUDES}
+     * @param excludes the patterns of the paths to deflate even though they match an include, may be
+     *            <code>null</code>
+     */
+    CompressionPolicy(List<String> includes, List<String> excludes) {
+        this.includes = includes != null ? includes : DEFAULT_STORE_INCLUDES;
+        this.excludes = excludes != null ? excludes : Collections.emptyList();
+    }
+
+    /**
+     * @param path the path of an entry inside the RAR
+     * @return <code>true</code> if the entry is stored without compression
+     */
+    boolean isStored(String path) {
+        return matches(includes, path) && !matches(excludes, path);
+    }
+
+    private static boolean matches(List<String> patterns, String path) {
+        for (String pattern : patterns) {
+            if (SelectorUtils.matchPath(pattern.trim().replace('\\', '/'), path, "/", false)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.plugins.rar;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.apache.maven.archiver.MavenArchiver;
+import org.apache.maven.artifact.DependencyResolutionRequiredException;
+import org.codehaus.plexus.archiver.jar.ManifestException;
+
+/**
+ * Lets the Maven archiver write the manifest and the Maven descriptor to a temporary archive, then writes the RAR
+ * from that metadata and the files of the RAR with the {@link RarArchiveWriter} of the request.
+ */
+final class DirectArchiveBackend implements RarArchiveBackend {
+    @Override
+    public String getName() {
+        return "direct";
+    }
+
+    @Override
+    public boolean isCopyingRawEntries() {
+        return true;
+    }
+
+    @Override
+    public void createArchive(RarArchiveRequest request)
+            throws IOException, ManifestException, DependencyResolutionRequiredException {
+        MavenArchiver archiver = request.getArchiver();
+        File rarFile = request.getRarFile();
+        File metadata = new File(rarFile.getPath() + ".metadata");
+        try {
+            archiver.setOutputFile(metadata);
+            archiver.createArchive(request.getSession(), request.getProject(), request.getArchiveConfiguration());
+
+            request.getWriter().write(metadata, request.getFiles(), rarFile, request.getReusableArchives());
+        } finally {
+            Files.deleteIfExists(metadata.toPath());
+            archiver.setOutputFile(rarFile);
+        }
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.plugins.rar;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.SelectorUtils;
+
+/**
+ * Finds the classes and resources packaged in more than one jar, comparing them by name and CRC. Only the central
+ * directories of the jars are read, in parallel. Besides the number of entries of every jar, only the unique entry
+ * names are kept, with the jar and CRC of their first occurrence; the other occurrences are only kept for the names
+ * that are actually duplicated.
+ * <p>
+ * The manifest, signatures, licenses and other files directly in <code>META-INF</code>, the Maven descriptors, the
+ * service files and the module descriptors are expected in every jar and are not compared.
+ */
+final class DuplicateFinder {
+    /**
+     * The occurrence of an entry in a jar.
+     */
+    private static final class Occurrence {
+        private final int jar;
+
+        private final long crc;
+
+        private Occurrence(int jar, long crc) {
+            this.jar = jar;
+            this.crc = crc;
+        }
+    }
+
+    /**
+     * The entries found in the same jars, reported together.
+     */
+    private static final class Group {
+        private final Set<String> identical = new TreeSet<>();
+
+        private final Set<String> different = new TreeSet<>();
+    }
+
+    private final List<String> jarNames;
+
+    private final int[] entryCounts;
+
+    /**
+     * The occurrences of every duplicated entry, keyed by entry name.
+     */
+    private final Map<String, List<Occurrence>> duplicates = new TreeMap<>();
+
+    private DuplicateFinder(List<String> jarNames) {
+        this.jarNames = jarNames;
+        this.entryCounts = new int[jarNames.size()];
+    }
+
+    /**
+     * Reads the entries of the jars. Files that are not valid jars are skipped.
+     *
+     * @param jars the jars keyed by name, in the order of the class path
+     * @param excludes the patterns of the entries not to compare, may be <code>null</code>
+     * @param threads the maximum number of jars read at the same time
+     * @param log the log for files that are not valid jars
+     * @return the duplicates
+     * @throws IOException if a jar could not be read
+     */
+    static DuplicateFinder find(Map<String, File> jars, List<String> excludes, int threads, Log log)
+            throws IOException {
+        DuplicateFinder finder = new DuplicateFinder(new ArrayList<>(jars.keySet()));
+        // a single occurrence, or the list of all occurrences of a duplicated entry
+        Map<String, Object> names = new ConcurrentHashMap<>();
+        List<Callable<Void>> tasks = new ArrayList<>(jars.size());
+        int index = 0;
+        for (File jar : jars.values()) {
+            int jarIndex = index++;
+            tasks.add(() -> {
+                finder.entryCounts[jarIndex] = readEntries(jar, jarIndex, excludes, names, log);
+                return null;
+            });
+        }
+        ParallelTasks.invokeAll(tasks, threads);
+
+        for (Map.Entry<String, Object> name : names.entrySet()) {
+            if (name.getValue() instanceof List) {
+                @SuppressWarnings("unchecked")
+                List<Occurrence> occurrences = (List<Occurrence>) name.getValue();
+                occurrences.sort(Comparator.comparingInt(occurrence -> occurrence.jar));
+                finder.duplicates.put(name.getKey(), occurrences);
+            }
+        }
+        return finder;
+    }
+
+    /**
+     * @return <code>true</code> if any entry is found in more than one jar with different content
+     */
+    boolean hasConflicts() {
+        for (List<Occurrence> occurrences : duplicates.values()) {
+            if (!isIdentical(occurrences)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Describes the duplicates, one line per set of jars sharing entries.
+     *
+     * @param examples the maximum number of entries named per line
+     * @return the description of the duplicates
+     */
+    List<String> getReport(int examples) {
+        Map<String, Group> groups = new TreeMap<>();
+        for (Map.Entry<String, List<Occurrence>> duplicate : duplicates.entrySet()) {
+            List<String> jars = new ArrayList<>();
+            for (Occurrence occurrence : duplicate.getValue()) {
+                jars.add(jarNames.get(occurrence.jar));
+            }
+            Group group = groups.computeIfAbsent(String.join(", ", jars), key -> new Group());
+            (isIdentical(duplicate.getValue()) ? group.identical : group.different).add(duplicate.getKey());
+        }
+
+        List<String> report = new ArrayList<>();
+        for (Map.Entry<String, Group> group : groups.entrySet()) {
+            Group entries = group.getValue();
+            int count = entries.identical.size() + entries.different.size();
+            StringBuilder line = new StringBuilder(group.getKey())
+                    .append(" share ")
+                    .append(count)
+                    .append(count == 1 ? " class or resource (" : " classes and resources (")
+                    .append(entries.identical.size())
+                    .append(" identical, ")
+                    .append(entries.different.size())
+                    .append(" different)");
+            List<String> names = new ArrayList<>(entries.different);
+            names.addAll(entries.identical);
+            if (names.size() > examples) {
+                names = new ArrayList<>(names.subList(0, examples));
+                names.add("...");
+            }
+            report.add(line.append(": ").append(String.join(", ", names)).toString());
+        }
+        return report;
+    }
+
+    /**
+     * Finds the jars whose classes and resources are all found with the same content in the other jars, which the RAR
+     * does not need. Of jars holding the same entries, the first one is kept.
+     *
+     * @return the names of the redundant jars
+     */
+    Set<String> getRedundantJars() {
+        int[] covered = new int[jarNames.size()];
+        Map<Integer, List<List<Occurrence>>> jarDuplicates = new LinkedHashMap<>();
+        for (List<Occurrence> occurrences : duplicates.values()) {
+            for (Occurrence occurrence : occurrences) {
+                for (Occurrence other : occurrences) {
+                    if (other.jar != occurrence.jar && other.crc == occurrence.crc) {
+                        covered[occurrence.jar]++;
+                        jarDuplicates
+                                .computeIfAbsent(occurrence.jar, jar -> new ArrayList<>())
+                                .add(occurrences);
+                        break;
+                    }
+                }
+            }
+        }
+
+        boolean[] redundant = new boolean[jarNames.size()];
+        Set<String> redundantJars = new TreeSet<>();
+        // from the last jar, so that the first of identical jars is kept
+        for (int jar = jarNames.size() - 1; jar >= 0; jar--) {
+            if (entryCounts[jar] <= 0 || covered[jar] < entryCounts[jar]) {
+                continue;
+            }
+            boolean coveredByKeptJars = true;
+            for (List<Occurrence> occurrences : jarDuplicates.getOrDefault(jar, Collections.emptyList())) {
+                coveredByKeptJars &= isCoveredByKeptJar(occurrences, jar, redundant);
+            }
+            if (coveredByKeptJars) {
+                redundant[jar] = true;
+                redundantJars.add(jarNames.get(jar));
+            }
+        }
+        return redundantJars;
+    }
+
+    private static boolean isCoveredByKeptJar(List<Occurrence> occurrences, int jar, boolean[] redundant) {
+        long crc = -1;
+        for (Occurrence occurrence : occurrences) {
+            if (occurrence.jar == jar) {
+                crc = occurrence.crc;
+            }
+        }
+        for (Occurrence occurrence : occurrences) {
+            if (occurrence.jar != jar && occurrence.crc == crc && !redundant[occurrence.jar]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isIdentical(List<Occurrence> occurrences) {
+        for (Occurrence occurrence : occurrences) {
+            if (occurrence.crc != occurrences.get(0).crc) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds the entries of a jar to the names found so far.
+     *
+     * @return the number of entries compared, or <code>-1</code> if the file is not a valid jar
+     */
+    private static int readEntries(File jar, int jarIndex, List<String> excludes, Map<String, Object> names, Log log)
+            throws IOException {
+        int count = 0;
+        try (ZipFile zip = new ZipFile(jar)) {
+            for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements(); ) {
+                ZipEntry entry = e.nextElement();
+                if (entry.isDirectory() || isExcluded(entry.getName(), excludes)) {
+                    continue;
+                }
+                count++;
+                Occurrence occurrence = new Occurrence(jarIndex, entry.getCrc());
+                names.merge(entry.getName(), occurrence, DuplicateFinder::addOccurrence);
+            }
+        } catch (ZipException e) {
+            log.warn("Could not check " + jar + " for duplicates, it is not a valid jar: " + e.getMessage());
+            return -1;
+        }
+        return count;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object addOccurrence(Object occurrences, Object occurrence) {
+        List<Occurrence> list;
+        if (occurrences instanceof List) {
+            list = (List<Occurrence>) occurrences;
+        } else {
+            list = new ArrayList<>(2);
+            list.add((Occurrence) occurrences);
+        }
+        list.add((Occurrence) occurrence);
+        return list;
+    }
+
+    private static boolean isExcluded(String name, List<String> excludes) {
+        if ((name.startsWith("META-INF/") && name.indexOf('/', "META-INF/".length()) < 0)
+                || name.startsWith("META-INF/maven/")
+                || name.startsWith("META-INF/services/")
+                || name.endsWith("module-info.class")) {
+            return true;
+        }
+        if (excludes != null) {
+            for (String exclude : excludes) {
+                if (SelectorUtils.matchPath(exclude.trim().replace('\\', '/'), name, "/", true)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.plugins.rar;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Places files, typically the libraries of the RAR, in the work directory. Depending on the {@link StagingStrategy}
+ * the files are copied, hard linked or cloned; when the file system cannot link or clone a file, it is copied.
+ * Files left in place by a previous build are kept when they still match their source by size and last modification
+ * time, copies and clones get the last modification time of their source for that purpose. Copies are made with
+ * {@link FileChannel#transferTo}, which lets the operating system move the bytes without buffers on the heap.
+ */
+final class FileStager {
+    private final int threads;
+
+    private final StagingStrategy strategy;
+
+    private final Log log;
+
+    /**
+     * Cleared on the first failed link or clone, the remaining files are copied right away.
+     */
+    private final AtomicBoolean strategySupported = new AtomicBoolean(true);
+
+    private final AtomicLong copiedBytes = new AtomicLong();
+
+    /**
+     * @param threads the maximum number of files staged at the same time
+     * @param strategy how the files are placed in the target directory
+     * @param log the log to report fallbacks to
+     */
+    FileStager(int threads, StagingStrategy strategy, Log log) {
+        this.threads = threads;
+        this.strategy = strategy;
+        this.log = log;
+    }
+
+    /**
+     * Places the given files in the target directory.
+     *
+     * @param files the files to stage, keyed by their path relative to the target directory
+     * @param targetDirectory the target directory
+     * @throws IOException if any of the files could not be staged
+     */
+    void stage(Map<String, File> files, File targetDirectory) throws IOException {
+        stage(files, targetDirectory, (path, file) -> {});
+    }
+
+    /**
+     * Places the given files in the target directory, reporting each file as soon as it is in place.
+     *
+     * @param files the files to stage, keyed by their path relative to the target directory
+     * @param targetDirectory the target directory
+     * @param staged receives the path and the staged file, called from the staging threads
+     * @throws IOException if any of the files could not be staged
+     */
+    void stage(Map<String, File> files, File targetDirectory, BiConsumer<String, File> staged) throws IOException {
+        if (files.isEmpty()) {
+            return;
+        }
+        FileUtils.forceMkdir(targetDirectory);
+
+        List<Callable<Void>> tasks = new ArrayList<>(files.size());
+        for (Map.Entry<String, File> file : files.entrySet()) {
+            File source = file.getValue();
+            File target = new File(targetDirectory, file.getKey());
+            tasks.add(() -> {
+                stageFile(source, target);
+                staged.accept(file.getKey(), target);
+                return null;
+            });
+        }
+        ParallelTasks.invokeAll(tasks, threads);
+    }
+
+    private void stageFile(File source, File target) throws IOException {
+        if (isUpToDate(source, target)) {
+            return;
+        }
+        // never write through an existing file, it may be a hard link into the local repository
+        Files.deleteIfExists(target.toPath());
+
+        if (strategy == StagingStrategy.HARDLINK && strategySupported.get()) {
+            try {
+                Files.createLink(target.toPath(), source.toPath());
+                return;
+            } catch (IOException | UnsupportedOperationException e) {
+                fallBackToCopy(e.getMessage());
+            }
+        } else if (strategy == StagingStrategy.REFLINK && strategySupported.get()) {
+            if (cloneFile(source, target)) {
+                preserveLastModified(source, target);
+                return;
+            }
+            Files.deleteIfExists(target.toPath());
+            fallBackToCopy("copy-on-write is not supported for " + target.getParent());
+        }
+        copyFile(source, target);
+        preserveLastModified(source, target);
+        copiedBytes.addAndGet(target.length());
+    }
+
+    /**
+     * @return the number of bytes copied so far, files which were linked, cloned or left in place are not counted
+     */
+    long getCopiedBytes() {
+        return copiedBytes.get();
+    }
+
+    /**
+     * Copies a file with {@link FileChannel#transferTo}, which uses <code>copy_file_range</code> or
+     * <code>sendfile</code> where available so the content never reaches the heap.
+     *
+     * @param source the file to copy
+     * @param target the copy to create, must not exist
+     * @throws IOException if the file could not be copied
+     */
+    private static void copyFile(File source, File target) throws IOException {
+        Files.createDirectories(target.getParentFile().toPath());
+        try (FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+                FileChannel out =
+                        FileChannel.open(target.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            long size = in.size();
+            for (long position = 0; position < size; ) {
+                long transferred = in.transferTo(position, size - position, out);
+                if (transferred <= 0) {
+                    throw new IOException("Could not copy " + source + " to " + target + ", the file was truncated");
+                }
+                position += transferred;
+            }
+        }
+    }
+
+    private boolean isUpToDate(File source, File target) throws IOException {
+        if (!target.isFile()) {
+            return false;
+        }
+        if (Files.isSameFile(source.toPath(), target.toPath())) {
+            // a hard link left by an earlier build is replaced by a copy or a clone when those are asked for
+            return strategy == StagingStrategy.HARDLINK;
+        }
+        return target.length() == source.length() && target.lastModified() == source.lastModified();
+    }
+
+    private static void preserveLastModified(File source, File target) {
+        // when this fails the file is merely copied again by the next build
+        target.setLastModified(source.lastModified());
+    }
+
+    private void fallBackToCopy(String reason) {
+        if (strategySupported.compareAndSet(true, false)) {
+            log.info("Cannot " + (strategy == StagingStrategy.HARDLINK ? "hard link" : "clone")
+                    + " RAR dependencies (" + reason + "), copying them instead");
+        }
+    }
+
+    /**
+     * Clones a file with the <code>cp</code> command, the JDK does not expose copy-on-write copies.
+     *
+     * @param source the file to clone
+     * @param target the clone to create
+     * @return <code>true</code> if the file was cloned
+     * @throws IOException if interrupted
+     */
+    private static boolean cloneFile(File source, File target) throws IOException {
+        String os = System.getProperty("os.name", "").toLowerCase(Locale.ROOT);
+        List<String> command;
+        if (os.contains("linux")) {
+            command = Arrays.asList("cp", "--reflink=always", source.getAbsolutePath(), target.getAbsolutePath());
+        } else if (os.contains("mac")) {
+            command = Arrays.asList("cp", "-c", source.getAbsolutePath(), target.getAbsolutePath());
+        } else {
+            return false;
+        }
+
+        Process process;
+        try {
+            process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        } catch (IOException e) {
+            return false;
+        }
+        try (InputStream output = process.getInputStream()) {
+            byte[] buffer = new byte[1024];
+            while (output.read(buffer) != -1) {
+                // discard the messages of cp
+            }
+            return process.waitFor() == 0;
+        } catch (InterruptedException e) {
+            process.destroy();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while cloning " + source);
+        }
+    }
+}
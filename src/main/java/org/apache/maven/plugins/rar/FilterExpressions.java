@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.plugins.rar;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.codehaus.plexus.util.DirectoryScanner;
+
+/**
+ * Finds the expressions, like <code>${project.version}</code> or <code>@user.name@</code>, of the files to filter, so
+ * that only the properties they refer to are fingerprinted. The expressions are found the way they are filtered: by
+ * their delimiters, skipping the files whose extension is not filtered.
+ */
+final class FilterExpressions {
+    private static final List<String> DEFAULT_DELIMITERS = Arrays.asList("${*}", "@");
+
+    private static final List<String> DEFAULT_NON_FILTERED_FILE_EXTENSIONS =
+            Arrays.asList("jpg", "jpeg", "gif", "bmp", "png");
+
+    /**
+     * The begin and end tokens of every delimiter.
+     */
+    private final List<String[]> delimiters = new ArrayList<>();
+
+    private final Set<String> nonFilteredFileExtensions = new HashSet<>(DEFAULT_NON_FILTERED_FILE_EXTENSIONS);
+
+    private final Set<String> names = new TreeSet<>();
+
+    /**
+     * @param delimiters the delimiters, as <code>beginToken*endToken</code> or a single token, may be
+     *            <code>null</code>
+     * @param useDefaultDelimiters whether <code>${*}</code> and <code>@</code> are delimiters too
+     * @param nonFilteredFileExtensions the further extensions of the files not filtered, may be <code>null</code>
+     */
+    FilterExpressions(
+            Collection<String> delimiters, boolean useDefaultDelimiters, Collection<String> nonFilteredFileExtensions) {
+        Set<String> specs = new TreeSet<>();
+        if (delimiters != null) {
+            specs.addAll(delimiters);
+        }
+        if (useDefaultDelimiters || specs.isEmpty()) {
+            specs.addAll(DEFAULT_DELIMITERS);
+        }
+        for (String spec : specs) {
+            int star = spec.indexOf('*');
+            if (star < 0) {
+                this.delimiters.add(new String[] {spec, spec});
+            } else {
+                this.delimiters.add(new String[] {spec.substring(0, star), spec.substring(star + 1)});
+            }
+        }
+        if (nonFilteredFileExtensions != null) {
+            for (String extension : nonFilteredFileExtensions) {
+                this.nonFilteredFileExtensions.add(extension.toLowerCase(Locale.ROOT));
+            }
+        }
+    }
+
+    /**
+     * Finds the expressions of the files below a directory.
+     *
+     * @param directory the directory, may be <code>null</code> or missing
+     * @param includes the include patterns, may be <code>null</code> to include everything
+     * @param excludes the exclude patterns, may be <code>null</code>
+     * @throws IOException if a file could not be read
+     */
+    void scan(File directory, Collection<String> includes, Collection<String> excludes) throws IOException {
+        if (directory == null || !directory.isDirectory()) {
+            return;
+        }
+        DirectoryScanner scanner = new DirectoryScanner();
+        scanner.setBasedir(directory);
+        if (includes != null && !includes.isEmpty()) {
+            scanner.setIncludes(includes.toArray(new String[0]));
+        }
+        if (excludes != null && !excludes.isEmpty()) {
+            scanner.setExcludes(excludes.toArray(new String[0]));
+        }
+        scanner.scan();
+        for (String path : scanner.getIncludedFiles()) {
+            int dot = path.lastIndexOf('.');
+            if (dot < 0 || !nonFilteredFileExtensions.contains(path.substring(dot + 1).toLowerCase(Locale.ROOT))) {
+                // the tokens are ASCII, which every encoding used for filtering maps the same way
+                byte[] content = Files.readAllBytes(new File(directory, path).toPath());
+                addNames(new String(content, StandardCharsets.ISO_8859_1));
+            }
+        }
+    }
+
+    /**
+     * @return the names of the expressions found, sorted
+     */
+    Set<String> getNames() {
+        return names;
+    }
+
+    private void addNames(String content) {
+        for (String[] delimiter : delimiters) {
+            String begin = delimiter[0];
+            String end = delimiter[1];
+            for (int start = content.indexOf(begin); start >= 0; start = content.indexOf(begin, start + 1)) {
+                int nameStart = start + begin.length();
+                int nameEnd = content.indexOf(end, nameStart);
+                if (nameEnd < 0) {
+                    break;
+                }
+                String name = content.substring(nameStart, nameEnd);
+                if (isName(name)) {
+                    names.add(name);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return <code>true</code> for an expression that may name a property, made of printable ASCII characters
+     *         other than the space
+     */
+    private static boolean isName(String name) {
+        if (name.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c <= ' ' || c >= 0x7F) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.plugins.rar;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Remembers which filtered resources are up to date. Every filtered file is recorded with the hash of its source
+ * content, along with the size and last modification time of the filtered copy; the whole cache is discarded when the
+ * hash of the filtering configuration changes. A file only needs to be filtered again when its source content changed
+ * or its copy was modified.
+ */
+final class FilteringCache {
+    private final File file;
+
+    private final String configuration;
+
+    /**
+     * The recorded entries keyed by target path, each holding the source hash, the size and the last modification
+     * time of the copy.
+     */
+    private final Map<String, String[]> entries = new TreeMap<>();
+
+    /**
+     * Loads the cache, an unreadable cache or one recorded for another configuration is empty.
+     *
+     * @param file the file the cache is stored in
+     * @param configuration the hash of everything but the source content that affects the filtered files
+     * @throws IOException if the cache file exists but could not be read
+     */
+    FilteringCache(File file, String configuration) throws IOException {
+        this.file = file;
+        this.configuration = configuration;
+        if (file.isFile()) {
+            List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+            if (!lines.isEmpty() && lines.get(0).equals(configuration)) {
+                for (String line : lines.subList(1, lines.size())) {
+                    String[] fields = line.split("\t");
+                    if (fields.length == 4) {
+                        entries.put(fields[0], new String[] {fields[1], fields[2], fields[3]});
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param path the path of the filtered copy
+     * @param key the current hash of the source, see {@link InputsFingerprint#hash(File)}
+     * @param target the filtered copy
+     * @return <code>true</code> if the copy was filtered from the same content and has not been modified since
+     */
+    boolean isUpToDate(String path, String key, File target) {
+        String[] entry = entries.get(path);
+        return entry != null
+                && target.isFile()
+                && entry[0].equals(key)
+                && entry[1].equals(String.valueOf(target.length()))
+                && entry[2].equals(String.valueOf(target.lastModified()));
+    }
+
+    /**
+     * Records a filtered copy.
+     *
+     * @param path the path of the filtered copy
+     * @param key the hash of the source the copy was filtered from
+     * @param target the filtered copy
+     */
+    void update(String path, String key, File target) {
+        entries.put(path, new String[] {key, String.valueOf(target.length()), String.valueOf(target.lastModified())});
+    }
+
+    /**
+     * Forgets the copies that are no longer filtered, then stores the cache.
+     *
+     * @param paths the paths of all filtered copies of this build
+     * @throws IOException if the cache could not be written
+     */
+    void save(Collection<String> paths) throws IOException {
+        entries.keySet().retainAll(paths);
+        List<String> lines = new ArrayList<>(entries.size() + 1);
+        lines.add(configuration);
+        for (Map.Entry<String, String[]> entry : entries.entrySet()) {
+            lines.add(entry.getKey() + '\t' + String.join("\t", entry.getValue()));
+        }
+        Files.write(file.toPath(), lines, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.plugins.rar;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the inputs of the RAR for changes with a {@link WatchService}. Input directories are watched with all their
+ * subdirectories, including the ones created later; single input files are watched through their parent directory,
+ * changes to the other files of that directory are ignored. Input directories and parent directories which do not
+ * exist yet, or were deleted, are waited for through their closest existing ancestor and watched once they appear.
+ * Bursts of events are batched: a change is only reported once no event came in for the debounce delay.
+ */
+final class InputWatcher implements Closeable {
+    private final WatchService watchService;
+
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+
+    /**
+     * The directories whose whole content is watched.
+     */
+    private final Set<Path> inputDirectories = new HashSet<>();
+
+    /**
+     * The configured input directories, without their subdirectories.
+     */
+    private final Set<Path> rootDirectories = new HashSet<>();
+
+    /**
+     * The names of the watched files, keyed by their directory.
+     */
+    private final Map<Path, Set<String>> inputFiles = new HashMap<>();
+
+    /**
+     * The input directories and the directories of input files which do not exist.
+     */
+    private final Set<Path> missingDirectories = new HashSet<>();
+
+    /**
+     * @param inputDirectories the directories whose whole content is watched
+     * @param inputFiles the files to watch
+     * @throws IOException if the directories could not be registered
+     */
+    InputWatcher(Collection<File> inputDirectories, Collection<File> inputFiles) throws IOException {
+        watchService = FileSystems.getDefault().newWatchService();
+        try {
+            for (File file : inputFiles) {
+                Path path = file.toPath().toAbsolutePath().normalize();
+                if (path.getParent() != null) {
+                    this.inputFiles
+                            .computeIfAbsent(path.getParent(), p -> new HashSet<>())
+                            .add(path.getFileName().toString());
+                }
+            }
+            for (File directory : inputDirectories) {
+                rootDirectories.add(directory.toPath().toAbsolutePath().normalize());
+            }
+            for (Path directory : rootDirectories) {
+                watch(directory);
+            }
+            for (Path directory : this.inputFiles.keySet()) {
+                watch(directory);
+            }
+        } catch (IOException | RuntimeException e) {
+            watchService.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return <code>true</code> if at least one directory is watched
+     */
+    boolean isWatching() {
+        return !directories.isEmpty();
+    }
+
+    /**
+     * Waits for changes to the inputs and for the following burst of events to end.
+     *
+     * @param debounceMillis the time without events after which a change is reported
+     * @return the changed paths, empty if the events overflowed and the changes are unknown
+     * @throws IOException if a new directory could not be registered
+     * @throws InterruptedException if interrupted while waiting
+     */
+    Set<Path> awaitChanges(long debounceMillis) throws IOException, InterruptedException {
+        Set<Path> changed = new TreeSet<>();
+        boolean overflow = false;
+        WatchKey key = watchService.take();
+        while (key != null) {
+            Path directory = directories.get(key);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    overflow = true;
+                    continue;
+                }
+                Path path = directory.resolve((Path) event.context());
+                boolean watched = isWatched(directory, path);
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                    if (inputDirectories.contains(directory)) {
+                        registerAll(path);
+                    }
+                    watched |= watchAppeared(path);
+                }
+                if (watched) {
+                    changed.add(path);
+                }
+            }
+            if (!key.reset()) {
+                // the directory was deleted: an input directory, or one waited for through it, is waited for through
+                // its closest existing ancestor until it is created again
+                directories.remove(key);
+                inputDirectories.remove(directory);
+                if (rootDirectories.contains(directory) || inputFiles.containsKey(directory)) {
+                    missingDirectories.add(directory);
+                    changed.add(directory);
+                }
+                for (Path missing : new ArrayList<>(missingDirectories)) {
+                    if (missing.startsWith(directory)) {
+                        missingDirectories.remove(missing);
+                        watch(missing);
+                    }
+                }
+            }
+            if (changed.isEmpty() && !overflow) {
+                key = watchService.take();
+            } else {
+                key = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        return overflow ? new TreeSet<>() : changed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    private boolean isWatched(Path directory, Path path) {
+        if (inputDirectories.contains(directory)) {
+            return true;
+        }
+        Set<String> names = inputFiles.get(directory);
+        return names != null && names.contains(path.getFileName().toString());
+    }
+
+    /**
+     * Watches an input directory or the directory of input files, or, if it does not exist, its closest existing
+     * ancestor until it is created.
+     */
+    private void watch(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            missingDirectories.add(directory);
+            Path ancestor = directory.getParent();
+            while (ancestor != null && !Files.isDirectory(ancestor)) {
+                ancestor = ancestor.getParent();
+            }
+            if (ancestor != null && !directories.containsValue(ancestor)) {
+                register(ancestor);
+            }
+        } else if (rootDirectories.contains(directory)) {
+            registerAll(directory);
+        } else if (!directories.containsValue(directory)) {
+            register(directory);
+        }
+    }
+
+    /**
+     * Watches the missing directories a newly created directory is, or is an ancestor of.
+     *
+     * @param created the created directory
+     * @return <code>true</code> if an input directory or the directory of input files was created
+     */
+    private boolean watchAppeared(Path created) throws IOException {
+        boolean appeared = false;
+        for (Path directory : new ArrayList<>(missingDirectories)) {
+            if (directory.startsWith(created)) {
+                missingDirectories.remove(directory);
+                watch(directory);
+                appeared |= Files.isDirectory(directory);
+            }
+        }
+        return appeared;
+    }
+
+    private void registerAll(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes)
+                    throws IOException {
+                if (inputDirectories.add(directory) && !directories.containsValue(directory)) {
+                    register(directory);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void register(Path directory) throws IOException {
+        WatchKey key = directory.register(
+                watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_DELETE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        directories.put(key, directory);
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.plugins.rar;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.codehaus.plexus.util.DirectoryScanner;
+
+/**
+ * A SHA-256 digest over the inputs of a RAR build. Every input is added as a <code>name=value</code> line, files are
+ * represented by their path, size and last modification time, so the digest changes whenever an input changes. A
+ * fingerprint {@link #InputsFingerprint(boolean) over the content} represents files by the SHA-256 of their content
+ * only, so it is the same for a checkout in another directory or on another machine.
+ */
+final class InputsFingerprint {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final MessageDigest digest;
+
+    private final boolean content;
+
+    InputsFingerprint() {
+        this(false);
+    }
+
+    /**
+     * @param content <code>true</code> to represent files by their content instead of their path, size and last
+     *            modification time
+     */
+    InputsFingerprint(boolean content) {
+        this.content = content;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        }
+    }
+
+    /**
+     * Adds a plain value.
+     *
+     * @param name the name of the input
+     * @param value the value of the input, may be <code>null</code>
+     * @return this fingerprint
+     */
+    InputsFingerprint add(String name, Object value) {
+        digest.update((name + '=' + value + '\n').getBytes(StandardCharsets.UTF_8));
+        return this;
+    }
+
+    /**
+     * Adds all entries of a map, sorted by key.
+     *
+     * @param name the name of the input
+     * @param values the entries to add, may be <code>null</code>
+     * @return this fingerprint
+     */
+    InputsFingerprint addAll(String name, Map<?, ?> values) {
+        if (values != null) {
+            Map<String, String> sorted = new TreeMap<>();
+            for (Map.Entry<?, ?> entry : values.entrySet()) {
+                sorted.put(String.valueOf(entry.getKey()), String.valueOf(entry.getValue()));
+            }
+            for (Map.Entry<String, String> entry : sorted.entrySet()) {
+                add(name + '.' + entry.getKey(), entry.getValue());
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Adds a file by its path, size and last modification time, or by its content.
+     *
+     * @param name the name of the input
+     * @param file the file, may be <code>null</code> or missing
+     * @return this fingerprint
+     * @throws IOException if the content of the file could not be read
+     */
+    InputsFingerprint addFile(String name, File file) throws IOException {
+        if (content) {
+            return add(name, file == null ? null : file.isFile() ? hash(file) : "missing");
+        }
+        if (file == null || !file.exists()) {
+            return add(name, file == null ? null : file.getAbsolutePath() + "|missing");
+        }
+        return add(name, file.getAbsolutePath() + '|' + file.length() + '|' + file.lastModified());
+    }
+
+    /**
+     * Adds every file below a directory.
+     *
+     * @param name the name of the input
+     * @param directory the directory, may be <code>null</code> or missing
+     * @param includes the include patterns, may be <code>null</code> to include everything
+     * @param excludes the exclude patterns, may be <code>null</code>
+     * @return this fingerprint
+     * @throws IOException if the content of a file could not be read
+     */
+    InputsFingerprint addDirectory(
+            String name, File directory, Collection<String> includes, Collection<String> excludes)
+            throws IOException {
+        if (!content) {
+            add(name, directory == null ? null : directory.getAbsolutePath());
+        }
+        if (directory == null || !directory.isDirectory()) {
+            return this;
+        }
+        DirectoryScanner scanner = new DirectoryScanner();
+        scanner.setBasedir(directory);
+        if (includes != null && !includes.isEmpty()) {
+            scanner.setIncludes(includes.toArray(new String[0]));
+        }
+        if (excludes != null && !excludes.isEmpty()) {
+            scanner.setExcludes(excludes.toArray(new String[0]));
+        }
+        scanner.scan();
+
+        String[] directories = scanner.getIncludedDirectories();
+        Arrays.sort(directories);
+        for (String path : directories) {
+            add(name + ".dir", path);
+        }
+        String[] files = scanner.getIncludedFiles();
+        Arrays.sort(files);
+        for (String path : files) {
+            File file = new File(directory, path);
+            if (content) {
+                add(name + ".file", path.replace(File.separatorChar, '/') + '|' + hash(file));
+            } else {
+                add(name + ".file", path + '|' + file.length() + '|' + file.lastModified());
+            }
+        }
+        return this;
+    }
+
+    /**
+     * @return the hex encoded digest of all inputs added so far
+     */
+    String getValue() {
+        byte[] bytes;
+        try {
+            bytes = ((MessageDigest) digest.clone()).digest();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+        return toHex(bytes);
+    }
+
+    /**
+     * @param file the file
+     * @return the hex encoded SHA-256 digest of the content of the file
+     * @throws IOException if the file could not be read
+     */
+    static String hash(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        }
+        byte[] buffer = new byte[8192];
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+}
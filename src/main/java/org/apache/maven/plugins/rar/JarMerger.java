@@ -0,0 +1,229 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.plugins.rar;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+
+/**
+ * Merges jars into a single jar. The entries are copied as they are stored in their jar, without inflating and
+ * deflating them again. The first jar holding an entry wins; the service files below <code>META-INF/services</code>
+ * are merged instead. Manifests, jar indexes, signatures and module descriptors of the jars are left out, they
+ * do not hold for the merged jar.
+ */
+final class JarMerger {
+    private final FileTime lastModifiedTime;
+
+    /**
+     * The jar every entry written so far was taken from, keyed by entry name.
+     */
+    private final Map<String, String> origins = new HashMap<>();
+
+    /**
+     * The CRC of every file entry written so far, keyed by entry name.
+     */
+    private final Map<String, Long> crcs = new HashMap<>();
+
+    private final List<String> conflicts = new ArrayList<>();
+
+    private int duplicates;
+
+    /**
+     * @param lastModifiedTime the time of the entries created for the merged jar, <code>null</code> for the current
+     *            time
+     */
+    JarMerger(FileTime lastModifiedTime) {
+        this.lastModifiedTime = lastModifiedTime;
+    }
+
+    /**
+     * Merges the jars. The merged jar is written next to the target and then moved in place, so a target that is a
+     * hard link to a staged jar, or one of the jars to merge, is replaced instead of overwritten.
+     *
+     * @param jars the jars to merge keyed by name, in the order they take precedence
+     * @param target the merged jar
+     * @throws IOException if a jar could not be read or the merged jar could not be written
+     */
+    void merge(Map<String, File> jars, File target) throws IOException {
+        File output = new File(target.getPath() + ".tmp");
+        try {
+            merge(jars, new ZipArchiveOutputStream(output));
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(output.toPath());
+            throw e;
+        }
+        Files.move(output.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void merge(Map<String, File> jars, ZipArchiveOutputStream output) throws IOException {
+        Map<String, Set<String>> services = new TreeMap<>();
+        boolean multiRelease = false;
+        try (ZipArchiveOutputStream out = output) {
+            out.setEncoding("UTF-8");
+            List<ZipFile> zips = new ArrayList<>();
+            try {
+                for (File jar : jars.values()) {
+                    zips.add(ZipFile.builder().setFile(jar).get());
+                }
+                for (ZipFile zip : zips) {
+                    ZipArchiveEntry manifest = zip.getEntry("META-INF/MANIFEST.MF");
+                    if (manifest != null) {
+                        try (InputStream in = zip.getInputStream(manifest)) {
+                            multiRelease |= "true"
+                                    .equalsIgnoreCase(new Manifest(in).getMainAttributes().getValue("Multi-Release"));
+                        }
+                    }
+                }
+
+                addEntry(out, "META-INF/", null);
+                addEntry(out, "META-INF/MANIFEST.MF", getManifest(multiRelease));
+
+                int i = 0;
+                for (String name : jars.keySet()) {
+                    copyEntries(zips.get(i++), name, out, services);
+                }
+            } finally {
+                for (ZipFile zip : zips) {
+                    zip.close();
+                }
+            }
+
+            for (Map.Entry<String, Set<String>> service : services.entrySet()) {
+                String content = String.join("\n", service.getValue()) + '\n';
+                addEntry(out, service.getKey(), content.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    /**
+     * @return the entries found in more than one jar with different content, as <code>name (jar, jar)</code>
+     */
+    List<String> getConflicts() {
+        return conflicts;
+    }
+
+    /**
+     * @return the number of entries left out because an earlier jar held the same entry
+     */
+    int getDuplicates() {
+        return duplicates;
+    }
+
+    private void copyEntries(ZipFile zip, String jar, ZipArchiveOutputStream out, Map<String, Set<String>> services)
+            throws IOException {
+        for (Enumeration<ZipArchiveEntry> e = zip.getEntriesInPhysicalOrder(); e.hasMoreElements(); ) {
+            ZipArchiveEntry entry = e.nextElement();
+            String name = entry.getName();
+            if (isExcluded(name)) {
+                continue;
+            }
+            if (!entry.isDirectory() && ServiceFiles.isServiceFile(name)) {
+                try (InputStream in = zip.getInputStream(entry)) {
+                    services.computeIfAbsent(name, s -> new LinkedHashSet<>()).addAll(ServiceFiles.readProviders(in));
+                }
+                continue;
+            }
+            String origin = origins.putIfAbsent(name, jar);
+            if (origin != null) {
+                if (!entry.isDirectory()) {
+                    duplicates++;
+                    if (!Long.valueOf(entry.getCrc()).equals(crcs.get(name))) {
+                        conflicts.add(name + " (" + origin + ", " + jar + ")");
+                    }
+                }
+                continue;
+            }
+            if (!entry.isDirectory()) {
+                crcs.put(name, entry.getCrc());
+            }
+            out.addRawArchiveEntry(entry, zip.getRawInputStream(entry));
+        }
+    }
+
+    private void addEntry(ZipArchiveOutputStream out, String name, byte[] content) throws IOException {
+        ZipArchiveEntry entry = new ZipArchiveEntry(name);
+        entry.setTime(lastModifiedTime != null ? lastModifiedTime.toMillis() : System.currentTimeMillis());
+        if (content == null) {
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(0);
+            entry.setCrc(0);
+        } else {
+            entry.setMethod(ZipEntry.DEFLATED);
+        }
+        origins.put(name, "");
+        out.putArchiveEntry(entry);
+        if (content != null) {
+            out.write(content);
+        }
+        out.closeArchiveEntry();
+    }
+
+    private static byte[] getManifest(boolean multiRelease) throws IOException {
+        Manifest manifest = new Manifest();
+        Attributes attributes = manifest.getMainAttributes();
+        attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        attributes.putValue("Created-By", "Maven RAR Plugin");
+        if (multiRelease) {
+            attributes.putValue("Multi-Release", "true");
+        }
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        manifest.write(content);
+        return content.toByteArray();
+    }
+
+    private static boolean isExcluded(String name) {
+        if (name.equals("META-INF/MANIFEST.MF")
+                || name.equals(PackageIndex.INDEX_URI)
+                || name.endsWith("module-info.class")) {
+            return true;
+        }
+        // signatures of the jar, which do not match the merged jar
+        if (name.startsWith("META-INF/") && name.indexOf('/', "META-INF/".length()) < 0) {
+            String upperCase = name.toUpperCase(Locale.ROOT);
+            return upperCase.endsWith(".SF")
+                    || upperCase.endsWith(".DSA")
+                    || upperCase.endsWith(".RSA")
+                    || upperCase.endsWith(".EC")
+                    || upperCase.startsWith("META-INF/SIG-");
+        }
+        return false;
+    }
+}
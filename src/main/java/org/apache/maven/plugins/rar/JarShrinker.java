@@ -0,0 +1,349 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.plugins.rar;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.zip.ZipException;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.SelectorUtils;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * Removes the classes no root class can reach from the jars of a RAR. A class reaches every class named in its
+ * constant pool, its descriptors and signatures, and every string constant naming a class, see
+ * {@link ClassFile#getReferencedClasses()}. Besides the given roots, the providers listed in
+ * <code>META-INF/services</code>, the classes annotated with connector, injection, CDI or JPA annotations and all
+ * classes of CDI bean archives and of jars with a JPA <code>orm.xml</code> are roots, as the container discovers them
+ * by scanning. Resources are always kept. The classes a class that could not be read refers to are unknown, so no
+ * class is removed when any class could not be read.
+ */
+final class JarShrinker {
+    /**
+     * The packages of the annotations marking a class the container discovers by scanning.
+     */
+    private static final String[] ROOT_ANNOTATION_PACKAGES = {
+        "javax.resource.",
+        "jakarta.resource.",
+        "javax.inject.",
+        "jakarta.inject.",
+        "javax.enterprise.",
+        "jakarta.enterprise.",
+        "javax.persistence.",
+        "jakarta.persistence."
+    };
+
+    /**
+     * The descriptors making every class of a jar a root: CDI bean archives and JPA mapping files.
+     */
+    private static final String[] ROOT_DESCRIPTORS = {"META-INF/beans.xml", "META-INF/orm.xml"};
+
+    /**
+     * The classes of the API to load classes by name or reflect on them.
+     */
+    private static final String[] REFLECTION_CLASSES = {
+        "java.lang.Class", "java.lang.ClassLoader", "java.lang.reflect.Method", "java.lang.reflect.Constructor"
+    };
+
+    /**
+     * The classes of a jar.
+     */
+    private static final class JarClasses {
+        /**
+         * The class names keyed by entry name.
+         */
+        private final Map<String, String> classes = new HashMap<>();
+
+        private final Map<String, Set<String>> references = new HashMap<>();
+
+        private final Set<String> roots = new HashSet<>();
+
+        /**
+         * Whether a class of the jar could not be read.
+         */
+        private boolean unreadable;
+    }
+
+    private final Map<String, File> jars;
+
+    /**
+     * The classes of the jars, keyed by the path of the jar.
+     */
+    private final Map<String, JarClasses> jarClasses = new LinkedHashMap<>();
+
+    /**
+     * The classes of all jars and the classes they refer to, keyed by class name.
+     */
+    private final Map<String, Set<String>> references = new HashMap<>();
+
+    private final Set<String> reachable = new HashSet<>();
+
+    private JarShrinker(Map<String, File> jars, List<JarClasses> jarClasses) {
+        this.jars = jars;
+        int i = 0;
+        for (String path : jars.keySet()) {
+            this.jarClasses.put(path, jarClasses.get(i++));
+        }
+        for (JarClasses classes : jarClasses) {
+            for (Map.Entry<String, Set<String>> entry : classes.references.entrySet()) {
+                references.putIfAbsent(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Reads the classes of the jars, in parallel.
+     *
+     * @param jars the jars keyed by their path inside the RAR
+     * @param threads the maximum number of jars read at the same time
+     * @param log the log for classes that could not be read
+     * @return the shrinker
+     * @throws IOException if a jar could not be read
+     */
+    static JarShrinker analyze(Map<String, File> jars, int threads, Log log) throws IOException {
+        List<Callable<JarClasses>> tasks = new ArrayList<>(jars.size());
+        for (File jar : jars.values()) {
+            tasks.add(() -> readClasses(jar, log));
+        }
+        return new JarShrinker(new LinkedHashMap<>(jars), ParallelTasks.invokeAll(tasks, threads));
+    }
+
+    /**
+     * Computes the classes reachable from the roots.
+     *
+     * @param rootClasses the names of the root classes
+     * @param rootPatterns the patterns of further root classes, like <code>com.example.spi.**</code>, may be
+     *            <code>null</code>
+     * @return the number of reachable classes found in the jars
+     */
+    int computeReachable(Collection<String> rootClasses, List<String> rootPatterns) {
+        Deque<String> queue = new ArrayDeque<>(rootClasses);
+        for (JarClasses classes : jarClasses.values()) {
+            queue.addAll(classes.roots);
+            if (classes.unreadable) {
+                // a class that could not be read may refer to any class
+                queue.addAll(references.keySet());
+            }
+        }
+        if (rootPatterns != null) {
+            for (String className : references.keySet()) {
+                for (String pattern : rootPatterns) {
+                    if (SelectorUtils.matchPath(
+                            pattern.trim().replace('.', '/'), className.replace('.', '/'), "/", true)) {
+                        queue.add(className);
+                        break;
+                    }
+                }
+            }
+        }
+        reachable.clear();
+        while (!queue.isEmpty()) {
+            String className = queue.poll();
+            Set<String> classReferences = references.get(className);
+            if (classReferences != null && reachable.add(className)) {
+                queue.addAll(classReferences);
+            }
+        }
+        return reachable.size();
+    }
+
+    /**
+     * @return the number of classes found in the jars
+     */
+    int getClassCount() {
+        return references.size();
+    }
+
+    /**
+     * @return the paths of the jars holding classes that are not reachable
+     */
+    List<String> getShrinkableJars() {
+        List<String> shrinkable = new ArrayList<>();
+        for (Map.Entry<String, JarClasses> entry : jarClasses.entrySet()) {
+            if (!reachable.containsAll(entry.getValue().classes.values())) {
+                shrinkable.add(entry.getKey());
+            }
+        }
+        return shrinkable;
+    }
+
+    /**
+     * The reachable classes using the reflection API. Classes they load by names built at runtime cannot be found
+     * and must be kept as further roots.
+     *
+     * @return the binary names of the classes, sorted
+     */
+    Set<String> getReflectiveClasses() {
+        Set<String> reflective = new TreeSet<>();
+        for (String className : reachable) {
+            for (String reflectionClass : REFLECTION_CLASSES) {
+                if (references.get(className).contains(reflectionClass)) {
+                    reflective.add(className);
+                    break;
+                }
+            }
+        }
+        return reflective;
+    }
+
+    /**
+     * Copies a jar without its unreachable classes. The entries are copied as they are compressed in the jar.
+     *
+     * @param path the path of the jar inside the RAR
+     * @param target the shrunk jar
+     * @return the number of classes removed
+     * @throws IOException if the jar could not be read or the shrunk jar could not be written
+     */
+    int shrink(String path, File target) throws IOException {
+        Map<String, String> classes = jarClasses.get(path).classes;
+        int removed = 0;
+        try (ZipFile zip = ZipFile.builder().setFile(jars.get(path)).get();
+                ZipArchiveOutputStream out = new ZipArchiveOutputStream(target)) {
+            out.setEncoding("UTF-8");
+            for (Enumeration<ZipArchiveEntry> e = zip.getEntriesInPhysicalOrder(); e.hasMoreElements(); ) {
+                ZipArchiveEntry entry = e.nextElement();
+                String className = classes.get(entry.getName());
+                if (className != null && !reachable.contains(className)) {
+                    removed++;
+                    continue;
+                }
+                out.addRawArchiveEntry(entry, zip.getRawInputStream(entry));
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Reads the classes named by a connector deployment descriptor: the elements ending with <code>-class</code> or
+     * <code>-interface</code>, like <code>resourceadapter-class</code> or <code>connectionfactory-interface</code>,
+     * and the <code>messagelistener-type</code> elements. The DTD of the descriptor is not loaded.
+     *
+     * @param raXml the <code>ra.xml</code> file
+     * @return the binary names of the classes
+     * @throws IOException if the descriptor could not be read or parsed
+     */
+    static Set<String> readConnectorClasses(InputStream raXml) throws IOException {
+        Set<String> classes = new TreeSet<>();
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+            factory.setExpandEntityReferences(false);
+            NodeList elements = factory.newDocumentBuilder().parse(raXml).getElementsByTagName("*");
+            for (int i = 0; i < elements.getLength(); i++) {
+                Element element = (Element) elements.item(i);
+                String name = element.getLocalName() != null ? element.getLocalName() : element.getTagName();
+                if (name.endsWith("-class") || name.endsWith("-interface") || name.equals("messagelistener-type")) {
+                    String className = element.getTextContent().trim();
+                    if (!className.isEmpty()) {
+                        classes.add(className);
+                    }
+                }
+            }
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException("Could not parse the connector deployment descriptor: " + e.getMessage(), e);
+        }
+        return classes;
+    }
+
+    private static JarClasses readClasses(File jar, Log log) throws IOException {
+        JarClasses jarClasses = new JarClasses();
+        try (ZipFile zip = ZipFile.builder().setFile(jar).get()) {
+            boolean rootArchive = false;
+            for (String descriptor : ROOT_DESCRIPTORS) {
+                rootArchive |= zip.getEntry(descriptor) != null;
+            }
+            for (Enumeration<ZipArchiveEntry> e = zip.getEntries(); e.hasMoreElements(); ) {
+                ZipArchiveEntry entry = e.nextElement();
+                String name = entry.getName();
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                if (ServiceFiles.isServiceFile(name)) {
+                    try (InputStream in = zip.getInputStream(entry)) {
+                        jarClasses.roots.addAll(ServiceFiles.readProviders(in));
+                    }
+                    continue;
+                }
+                // multi-release variants and module descriptors are kept with the resources
+                if (!name.endsWith(".class") || name.startsWith("META-INF/") || name.endsWith("module-info.class")) {
+                    continue;
+                }
+                try (InputStream in = zip.getInputStream(entry)) {
+                    ClassFile classFile = ClassFile.read(in);
+                    jarClasses.classes.put(name, classFile.getName());
+                    jarClasses.references.putIfAbsent(classFile.getName(), classFile.getReferencedClasses());
+                    if (rootArchive || isRoot(classFile)) {
+                        jarClasses.roots.add(classFile.getName());
+                    }
+                } catch (IOException ex) {
+                    log.warn("Could not read " + name + " in " + jar + ", keeping all classes: " + ex.getMessage());
+                    jarClasses.unreadable = true;
+                }
+            }
+        } catch (ZipException e) {
+            log.warn("Could not shrink " + jar + ", it is not a valid jar: " + e.getMessage());
+        }
+        return jarClasses;
+    }
+
+    /**
+     * @return <code>true</code> for package descriptors and the classes with a member or the class itself annotated
+     *         with a connector, injection, CDI or JPA annotation, like <code>@Connector</code>, <code>@Inject</code>
+     *         or <code>@Entity</code>
+     */
+    private static boolean isRoot(ClassFile classFile) {
+        if (classFile.getName().endsWith(".package-info")) {
+            return true;
+        }
+        for (Set<String> annotations : classFile.getAnnotations().values()) {
+            for (String annotation : annotations) {
+                for (String annotationPackage : ROOT_ANNOTATION_PACKAGES) {
+                    if (annotation.startsWith(annotationPackage)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+}
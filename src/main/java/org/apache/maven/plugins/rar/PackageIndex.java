@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.plugins.rar;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * The package index of the jars of a RAR in the <code>INDEX.LIST</code> format of the jar specification, telling a
+ * class loader which jars hold a package without opening every jar. Only the central directories of the jars are
+ * read, in parallel.
+ */
+final class PackageIndex {
+    /**
+     * The path of the index inside the RAR.
+     */
+    static final String INDEX_URI = "META-INF/INDEX.LIST";
+
+    /**
+     * The packages and top level resources of every jar, keyed by the path of the jar inside the RAR, in the order
+     * of the index.
+     */
+    private final Map<String, SortedSet<String>> entries = new LinkedHashMap<>();
+
+    /**
+     * The jars holding classes of a package, keyed by package.
+     */
+    private final Map<String, Set<String>> classPackages = new TreeMap<>();
+
+    private PackageIndex() {
+        // use create
+    }
+
+    /**
+     * Reads the entries of the jars. Files that are not valid jars are left out of the index.
+     *
+     * @param jars the jars keyed by their path inside the RAR
+     * @param threads the maximum number of jars read at the same time
+     * @param log the log for files that are not valid jars
+     * @return the index
+     * @throws IOException if a jar could not be read
+     */
+    static PackageIndex create(Map<String, File> jars, int threads, Log log) throws IOException {
+        List<Callable<Map<String, Boolean>>> tasks = new ArrayList<>(jars.size());
+        for (File jar : jars.values()) {
+            tasks.add(() -> readPackages(jar, log));
+        }
+        List<Map<String, Boolean>> packages = ParallelTasks.invokeAll(tasks, threads);
+
+        PackageIndex index = new PackageIndex();
+        int i = 0;
+        for (String path : jars.keySet()) {
+            Map<String, Boolean> jarPackages = packages.get(i++);
+            if (jarPackages == null) {
+                continue;
+            }
+            index.entries.put(path, new TreeSet<>(jarPackages.keySet()));
+            for (Map.Entry<String, Boolean> jarPackage : jarPackages.entrySet()) {
+                if (jarPackage.getValue()) {
+                    index.classPackages
+                            .computeIfAbsent(jarPackage.getKey().replace('/', '.'), p -> new TreeSet<>())
+                            .add(path);
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @return the jars of the packages whose classes are spread over more than one jar, keyed by package
+     */
+    Map<String, Set<String>> getSplitPackages() {
+        Map<String, Set<String>> splitPackages = new TreeMap<>();
+        for (Map.Entry<String, Set<String>> classPackage : classPackages.entrySet()) {
+            if (classPackage.getValue().size() > 1) {
+                splitPackages.put(classPackage.getKey(), classPackage.getValue());
+            }
+        }
+        return splitPackages;
+    }
+
+    /**
+     * @return the number of jars in the index
+     */
+    int getJarCount() {
+        return entries.size();
+    }
+
+    /**
+     * Writes the index.
+     *
+     * @param file the file to write
+     * @throws IOException if the file could not be written
+     */
+    void write(File file) throws IOException {
+        StringBuilder index = new StringBuilder("JarIndex-Version: 1.0\n\n");
+        for (Map.Entry<String, SortedSet<String>> jar : entries.entrySet()) {
+            index.append(jar.getKey()).append('\n');
+            for (String name : jar.getValue()) {
+                index.append(name).append('\n');
+            }
+            index.append('\n');
+        }
+        Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+        Files.write(file.toPath(), index.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Lists the packages of a jar the way the JDK indexes jars: the directory of every entry, or the entry itself for
+     * top level files, leaving out the manifest, any index and multi-release variants.
+     *
+     * @return whether the package holds classes, keyed by package, or <code>null</code> if the file is not a jar
+     */
+    private static Map<String, Boolean> readPackages(File jar, Log log) throws IOException {
+        Map<String, Boolean> packages = new TreeMap<>();
+        try (ZipFile zip = new ZipFile(jar)) {
+            for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements(); ) {
+                String name = e.nextElement().getName();
+                if (name.equals("META-INF/")
+                        || name.equals(INDEX_URI)
+                        || name.equals("META-INF/MANIFEST.MF")
+                        || name.startsWith("META-INF/versions/")) {
+                    continue;
+                }
+                int slash = name.lastIndexOf('/');
+                String packageName = slash < 0 ? name : name.substring(0, slash);
+                if (packageName.isEmpty()) {
+                    continue;
+                }
+                boolean classes = name.endsWith(".class") && slash > 0 && !name.endsWith("module-info.class");
+                packages.merge(packageName, classes, Boolean::logicalOr);
+            }
+        } catch (ZipException e) {
+            log.warn("Could not index " + jar + ", it is not a valid jar: " + e.getMessage());
+            return null;
+        }
+        return packages;
+    }
+}
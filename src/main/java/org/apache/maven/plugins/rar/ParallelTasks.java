@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.plugins.rar;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs independent I/O tasks on a bounded number of threads. Results and failures are reported in the order the
+ * tasks were given, whatever the order they complete in.
+ */
+final class ParallelTasks {
+    private ParallelTasks() {
+        // no op
+    }
+
+    /**
+     * Runs all tasks and waits for them to complete. With more than one thread every task runs even if an earlier
+     * one fails; the failure of the first failing task is thrown, the later failures are added to it as suppressed
+     * exceptions.
+     *
+     * @param tasks the tasks to run
+     * @param threads the maximum number of threads to use, <code>1</code> or less runs the tasks in the calling
+     *            thread
+     * @param <T> the result type
+     * @return the results of the tasks, in the order of the tasks
+     * @throws IOException if any of the tasks failed
+     */
+    static <T> List<T> invokeAll(List<? extends Callable<T>> tasks, int threads) throws IOException {
+        List<T> results = new ArrayList<>(tasks.size());
+        if (threads <= 1 || tasks.size() <= 1) {
+            for (Callable<T> task : tasks) {
+                try {
+                    results.add(task.call());
+                } catch (Exception e) {
+                    throw asIOException(e);
+                }
+            }
+            return results;
+        }
+
+        ExecutorService executor = newExecutor(Math.min(threads, tasks.size()));
+        try {
+            List<Future<T>> futures = new ArrayList<>(tasks.size());
+            for (Callable<T> task : tasks) {
+                futures.add(executor.submit(task));
+            }
+            IOException failure = null;
+            for (Future<T> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    IOException exception = asIOException(e.getCause());
+                    if (failure == null) {
+                        failure = exception;
+                    } else {
+                        failure.addSuppressed(exception);
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for parallel tasks");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @param threads the number of threads
+     * @return a fixed size executor using daemon threads
+     */
+    static ExecutorService newExecutor(int threads) {
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "rar-worker-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return Executors.newFixedThreadPool(threads, threadFactory);
+    }
+
+    private static IOException asIOException(Throwable throwable) {
+        if (throwable instanceof IOException) {
+            return (IOException) throwable;
+        }
+        if (throwable instanceof RuntimeException) {
+            throw (RuntimeException) throwable;
+        }
+        if (throwable instanceof Error) {
+            throw (Error) throwable;
+        }
+        return new IOException(throwable.getMessage(), throwable);
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.plugins.rar;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import org.apache.maven.archiver.MavenArchiveConfiguration;
+import org.apache.maven.archiver.MavenArchiver;
+import org.apache.maven.artifact.DependencyResolutionRequiredException;
+import org.codehaus.plexus.archiver.util.DefaultFileSet;
+import org.codehaus.plexus.archiver.jar.ManifestException;
+
+/**
+ * Writes the RAR with the plexus archiver: the work directory is added as a whole, the files of the RAR which are not
+ * staged one by one.
+ */
+final class PlexusArchiveBackend implements RarArchiveBackend {
+    @Override
+    public String getName() {
+        return "plexus";
+    }
+
+    @Override
+    public boolean isCopyingRawEntries() {
+        return false;
+    }
+
+    @Override
+    public void createArchive(RarArchiveRequest request)
+            throws IOException, ManifestException, DependencyResolutionRequiredException {
+        MavenArchiver archiver = request.getArchiver();
+        File workDirectory = request.getWorkDirectory();
+        Map<String, File> sourceEntries = request.getSourceEntries();
+        if (sourceEntries.isEmpty()) {
+            archiver.getArchiver().addFileSet(DefaultFileSet.fileSet(workDirectory));
+        } else {
+            for (Map.Entry<String, File> entry : sourceEntries.entrySet()) {
+                archiver.getArchiver().addFile(entry.getValue(), entry.getKey());
+            }
+            // entries added from their source location win over staged files with the same path
+            if (workDirectory.isDirectory()) {
+                archiver.getArchiver()
+                        .addFileSet(DefaultFileSet.fileSet(workDirectory)
+                                .exclude(sourceEntries.keySet().toArray(new String[0])));
+            }
+        }
+        // the Maven archiver applies the option of the configuration to the archiver, it is restored afterwards
+        MavenArchiveConfiguration archiveConfiguration = request.getArchiveConfiguration();
+        boolean recompressAddedZips = archiveConfiguration.isRecompressAddedZips();
+        if (request.isStoreCompressedEntries()) {
+            archiveConfiguration.setRecompressAddedZips(false);
+        }
+        try {
+            archiver.createArchive(request.getSession(), request.getProject(), archiveConfiguration);
+        } finally {
+            archiveConfiguration.setRecompressAddedZips(recompressAddedZips);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.plugins.rar;
+
+import java.io.IOException;
+import java.util.Locale;
+
+import org.apache.maven.artifact.DependencyResolutionRequiredException;
+import org.codehaus.plexus.archiver.jar.ManifestException;
+
+/**
+ * Writes the RAR from the files prepared by the <code>rar</code> goal. The Maven archiver of the request writes the
+ * manifest and the Maven descriptor in any case, a backend decides how the content is written.
+ */
+interface RarArchiveBackend {
+    /**
+     * The plexus archiver, which supports every option of the archive configuration.
+     */
+    RarArchiveBackend PLEXUS = new PlexusArchiveBackend();
+
+    /**
+     * The {@link RarArchiveWriter}, which deflates in parallel, copies unchanged entries of other archives as they are
+     * and streams the RAR to disk.
+     */
+    RarArchiveBackend DIRECT = new DirectArchiveBackend();
+
+    /**
+     * @param value <code>plexus</code> or <code>direct</code>
+     * @return the matching backend
+     * @throws IllegalArgumentException if the value does not match any backend
+     */
+    static RarArchiveBackend of(String value) {
+        switch (value.trim().toLowerCase(Locale.ROOT)) {
+            case "plexus":
+                return PLEXUS;
+            case "direct":
+                return DIRECT;
+            default:
+                throw new IllegalArgumentException(
+                        "Unknown archive backend '" + value + "', expected plexus or direct");
+        }
+    }
+
+    /**
+     * @return the name of the backend, as configured
+     */
+    String getName();
+
+    /**
+     * @return <code>true</code> if the backend copies the unchanged entries of the
+     *         {@link RarArchiveRequest#getReusableArchives() reusable archives} as they are
+     */
+    boolean isCopyingRawEntries();
+
+    /**
+     * Writes the RAR.
+     *
+     * @param request the content and the configuration of the RAR
+     * @throws IOException if a file could not be read or the RAR could not be written
+     * @throws ManifestException if the manifest could not be created
+     * @throws DependencyResolutionRequiredException if the manifest needs the unresolved dependencies
+     */
+    void createArchive(RarArchiveRequest request)
+            throws IOException, ManifestException, DependencyResolutionRequiredException;
+}
@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.plugins.rar;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.maven.archiver.MavenArchiveConfiguration;
+import org.apache.maven.archiver.MavenArchiver;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.project.MavenProject;
+
+/**
+ * The content and the configuration of a RAR, handed to a {@link RarArchiveBackend}.
+ */
+final class RarArchiveRequest {
+    private final MavenArchiver archiver;
+
+    private final MavenSession session;
+
+    private final MavenProject project;
+
+    private final MavenArchiveConfiguration archiveConfiguration;
+
+    private final File rarFile;
+
+    private File workDirectory;
+
+    private Map<String, File> sourceEntries = Collections.emptyMap();
+
+    private Map<String, File> files = Collections.emptyMap();
+
+    private boolean storeCompressedEntries;
+
+    private RarArchiveWriter writer;
+
+    private List<File> reusableArchives = Collections.emptyList();
+
+    /**
+     * @param archiver the Maven archiver, configured to write the RAR file
+     * @param session the Maven session
+     * @param project the project
+     * @param archiveConfiguration the archive configuration
+     * @param rarFile the RAR file
+     */
+    RarArchiveRequest(
+            MavenArchiver archiver,
+            MavenSession session,
+            MavenProject project,
+            MavenArchiveConfiguration archiveConfiguration,
+            File rarFile) {
+        this.archiver = archiver;
+        this.session = session;
+        this.project = project;
+        this.archiveConfiguration = archiveConfiguration;
+        this.rarFile = rarFile;
+    }
+
+    MavenArchiver getArchiver() {
+        return archiver;
+    }
+
+    MavenSession getSession() {
+        return session;
+    }
+
+    MavenProject getProject() {
+        return project;
+    }
+
+    MavenArchiveConfiguration getArchiveConfiguration() {
+        return archiveConfiguration;
+    }
+
+    File getRarFile() {
+        return rarFile;
+    }
+
+    /**
+     * @param workDirectory the directory holding the staged files of the RAR
+     * @param sourceEntries the files added to the RAR from their source location, keyed by their path inside the RAR
+     * @param files all files and directories of the RAR besides the metadata, keyed by their path inside the RAR;
+     *            directories have a path ending with <code>/</code>
+     */
+    void setContent(File workDirectory, Map<String, File> sourceEntries, Map<String, File> files) {
+        this.workDirectory = workDirectory;
+        this.sourceEntries = sourceEntries;
+        this.files = files;
+    }
+
+    File getWorkDirectory() {
+        return workDirectory;
+    }
+
+    Map<String, File> getSourceEntries() {
+        return sourceEntries;
+    }
+
+    Map<String, File> getFiles() {
+        return files;
+    }
+
+    /**
+     * @param storeCompressedEntries <code>true</code> to store already compressed files instead of deflating them
+     */
+    void setStoreCompressedEntries(boolean storeCompressedEntries) {
+        this.storeCompressedEntries = storeCompressedEntries;
+    }
+
+    boolean isStoreCompressedEntries() {
+        return storeCompressedEntries;
+    }
+
+    /**
+     * @param writer the writer of the RAR, for backends writing the content themselves
+     * @param reusableArchives the archives whose unchanged entries are copied as they are, for backends
+     *            {@link RarArchiveBackend#isCopyingRawEntries() copying raw entries}
+     */
+    void setWriter(RarArchiveWriter writer, List<File> reusableArchives) {
+        this.writer = writer;
+        this.reusableArchives = reusableArchives;
+    }
+
+    RarArchiveWriter getWriter() {
+        return writer;
+    }
+
+    List<File> getReusableArchives() {
+        return reusableArchives;
+    }
+}
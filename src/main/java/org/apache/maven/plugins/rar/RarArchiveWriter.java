@@ -0,0 +1,579 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.plugins.rar;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+import org.apache.commons.compress.archivers.zip.DefaultBackingStoreSupplier;
+import org.apache.commons.compress.archivers.zip.ParallelScatterZipCreator;
+import org.apache.commons.compress.archivers.zip.Zip64Mode;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.compress.parallel.InputStreamSupplier;
+
+/**
+ * Writes the RAR with commons-compress, deflating the entries on a bounded number of threads. The metadata created
+ * by the Maven archiver, i.e. the manifest and the Maven descriptor, is copied first as is, followed by the content
+ * of the RAR sorted by path. Entries are written in that order whatever the number of threads, so the archive is
+ * the same for every thread count.
+ * <p>
+ * The heap needed does not depend on the size of the files: deflated entries are gathered in temporary files next to
+ * the archive, large stored files are streamed to the archive directly, and Zip64 extensions are used as soon as the
+ * archive exceeds 4 GB or 65,535 entries. Only the metadata of the entries is kept in memory.
+ */
+final class RarArchiveWriter {
+    private static final int FILE_MODE = 0100644;
+
+    private static final int DIRECTORY_MODE = 040755;
+
+    /**
+     * Stored files of at least that size are copied to the archive directly rather than through a temporary file.
+     */
+    private static final long STREAMED_ENTRY_SIZE = 64L * 1024 * 1024;
+
+    private final int threads;
+
+    private final long parallelThreshold;
+
+    private final boolean compress;
+
+    private final CompressionPolicy compressionPolicy;
+
+    private final FileTime lastModifiedTime;
+
+    private int reusedEntries;
+
+    /**
+     * @param threads the maximum number of threads deflating entries
+     * @param parallelThreshold archives with fewer bytes of content are deflated on a single thread
+     * @param compress <code>false</code> to store all entries
+     * @param compressionPolicy decides which entries are stored even though <code>compress</code> is set
+     * @param lastModifiedTime the time of all entries for reproducible builds, <code>null</code> to use the time of
+     *            the files
+     */
+    RarArchiveWriter(
+            int threads,
+            long parallelThreshold,
+            boolean compress,
+            CompressionPolicy compressionPolicy,
+            FileTime lastModifiedTime) {
+        this.threads = threads;
+        this.parallelThreshold = parallelThreshold;
+        this.compress = compress;
+        this.compressionPolicy = compressionPolicy;
+        this.lastModifiedTime = lastModifiedTime;
+    }
+
+    /**
+     * Writes the archive. Missing parent directory entries are added.
+     *
+     * @param metadata an archive holding the entries to write first, those are not overwritten by the content
+     * @param files the content of the archive keyed by path, directories have a path ending with <code>/</code>
+     * @param target the archive to write
+     * @throws IOException if the archive could not be written
+     */
+    void write(File metadata, Map<String, File> files, File target) throws IOException {
+        write(metadata, files, target, Collections.<File>emptyList());
+    }
+
+    /**
+     * Writes the archive, copying the compressed bytes of the files that did not change from previous archives.
+     * A file is unchanged when a previous archive holds an entry with the same path, compression method and content;
+     * only the other files are deflated. The entries are written exactly as without a previous archive.
+     *
+     * @param metadata an archive holding the entries to write first, those are not overwritten by the content
+     * @param files the content of the archive keyed by path, directories have a path ending with <code>/</code>
+     * @param target the archive to write
+     * @param previous the previous archives, searched in that order, may include the target itself
+     * @throws IOException if the archive could not be written
+     */
+    void write(File metadata, Map<String, File> files, File target, List<File> previous) throws IOException {
+        SortedMap<String, File> entries = new TreeMap<>();
+        for (Map.Entry<String, File> file : files.entrySet()) {
+            String path = file.getKey();
+            entries.put(path, file.getValue());
+            for (int i = path.indexOf('/'); i >= 0 && i < path.length() - 1; i = path.indexOf('/', i + 1)) {
+                entries.putIfAbsent(path.substring(0, i + 1), file.getValue());
+            }
+        }
+
+        reusedEntries = 0;
+        File output = previous.isEmpty() ? target : new File(target.getPath() + ".tmp");
+        List<ZipFile> previousArchives = new ArrayList<>();
+        try (ZipFile metadataArchive = ZipFile.builder().setFile(metadata).get();
+                ZipArchiveOutputStream out = newOutputStream(output)) {
+            Set<String> written = new HashSet<>();
+            for (Enumeration<ZipArchiveEntry> e = metadataArchive.getEntries(); e.hasMoreElements(); ) {
+                ZipArchiveEntry entry = e.nextElement();
+                out.addRawArchiveEntry(entry, metadataArchive.getRawInputStream(entry));
+                written.add(entry.getName());
+            }
+            entries.keySet().removeAll(written);
+
+            for (File file : previous) {
+                ZipFile archive = openPrevious(file);
+                if (archive != null) {
+                    previousArchives.add(archive);
+                }
+            }
+            Map<String, ReusedEntry> unchanged = findUnchanged(previousArchives, entries);
+            if (unchanged.isEmpty()) {
+                deflate(entries, out, output.getAbsoluteFile().getParentFile());
+            } else {
+                SortedMap<String, File> changed = new TreeMap<>(entries);
+                changed.keySet().removeAll(unchanged.keySet());
+                File changedArchive = new File(target.getPath() + ".changed");
+                try {
+                    try (ZipArchiveOutputStream changedOut = newOutputStream(changedArchive)) {
+                        deflate(changed, changedOut, changedArchive.getAbsoluteFile().getParentFile());
+                    }
+                    try (ZipFile deflated = ZipFile.builder().setFile(changedArchive).get()) {
+                        for (Map.Entry<String, File> entry : entries.entrySet()) {
+                            ReusedEntry reused = unchanged.get(entry.getKey());
+                            ZipFile archive = reused != null ? reused.archive : deflated;
+                            ZipArchiveEntry source =
+                                    reused != null ? reused.entry : deflated.getEntry(entry.getKey());
+                            ZipArchiveEntry copy = newEntry(entry.getKey(), entry.getValue());
+                            copy.setMethod(source.getMethod());
+                            copy.setCrc(source.getCrc());
+                            copy.setSize(source.getSize());
+                            copy.setCompressedSize(source.getCompressedSize());
+                            out.addRawArchiveEntry(copy, archive.getRawInputStream(source));
+                        }
+                    }
+                } finally {
+                    Files.deleteIfExists(changedArchive.toPath());
+                }
+                reusedEntries = unchanged.size();
+            }
+        } catch (IOException | RuntimeException e) {
+            if (output != target) {
+                Files.deleteIfExists(output.toPath());
+            }
+            throw e;
+        } finally {
+            for (ZipFile archive : previousArchives) {
+                archive.close();
+            }
+        }
+        if (output != target) {
+            Files.move(output.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * @return the number of entries copied from the previous archives by the last {@link #write}
+     */
+    int getReusedEntries() {
+        return reusedEntries;
+    }
+
+    /**
+     * Writes an archive holding a single file, deflated as {@link #write} would.
+     *
+     * @param path the path of the file in the archive
+     * @param file the file
+     * @param archive the archive to write
+     * @throws IOException if the archive could not be written
+     */
+    void deflate(String path, File file, File archive) throws IOException {
+        SortedMap<String, File> entries = new TreeMap<>();
+        entries.put(path, file);
+        try (ZipArchiveOutputStream out = newOutputStream(archive)) {
+            deflate(entries, out, archive.getAbsoluteFile().getParentFile());
+        }
+    }
+
+    /**
+     * @param path the path of a file in the archive
+     * @return <code>true</code> if the file is deflated, <code>false</code> if it is stored
+     */
+    boolean isDeflated(String path) {
+        return getMethod(path) == ZipEntry.DEFLATED;
+    }
+
+    /**
+     * Starts a compression stage deflating files ahead of {@link #write}, while the other files are still being
+     * prepared.
+     *
+     * @param archive the archive receiving the deflated files, to pass as a previous archive to {@link #write}
+     * @return the compression stage
+     */
+    Pipeline startPipeline(File archive) {
+        return new Pipeline(archive);
+    }
+
+    /**
+     * Deflates the entries on the compression threads, in the order of their paths. Large stored files are streamed
+     * in between, once the entries before them are written.
+     *
+     * @param directory the directory of the temporary files gathering the deflated entries
+     */
+    private void deflate(SortedMap<String, File> entries, ZipArchiveOutputStream out, File directory)
+            throws IOException {
+        long size = 0;
+        for (Map.Entry<String, File> entry : entries.entrySet()) {
+            if (!entry.getKey().endsWith("/")) {
+                size += entry.getValue().length();
+            }
+        }
+        int compressionThreads = size < parallelThreshold ? 1 : Math.max(1, threads);
+        List<Map.Entry<String, File>> batch = new ArrayList<>();
+        for (Map.Entry<String, File> entry : entries.entrySet()) {
+            if (isStreamed(entry.getKey(), entry.getValue())) {
+                deflate(batch, out, directory, compressionThreads);
+                batch.clear();
+                stream(entry.getKey(), entry.getValue(), out);
+            } else {
+                batch.add(entry);
+            }
+        }
+        deflate(batch, out, directory, compressionThreads);
+    }
+
+    private void deflate(
+            List<Map.Entry<String, File>> entries, ZipArchiveOutputStream out, File directory, int compressionThreads)
+            throws IOException {
+        if (entries.isEmpty()) {
+            return;
+        }
+        ExecutorService executor = ParallelTasks.newExecutor(compressionThreads);
+        try {
+            ParallelScatterZipCreator creator = new ParallelScatterZipCreator(
+                    executor, newBackingStoreSupplier(directory), Deflater.DEFAULT_COMPRESSION);
+            for (Map.Entry<String, File> entry : entries) {
+                addEntry(creator, entry.getKey(), entry.getValue());
+            }
+            creator.writeTo(out);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof UncheckedIOException ? e.getCause().getCause() : e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause.getMessage(), cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while deflating entries");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private boolean isStreamed(String path, File file) {
+        return !path.endsWith("/") && getMethod(path) == ZipEntry.STORED && file.length() >= STREAMED_ENTRY_SIZE;
+    }
+
+    /**
+     * Copies a stored file to the archive, whose local header is completed once the CRC is known. The entry is the
+     * same as the one written through a temporary file.
+     */
+    private void stream(String path, File file, ZipArchiveOutputStream out) throws IOException {
+        ZipArchiveEntry entry = newEntry(path, file);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(file.length());
+        out.putArchiveEntry(entry);
+        byte[] buffer = new byte[65536];
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                out.write(buffer, 0, n);
+            }
+        }
+        out.closeArchiveEntry();
+    }
+
+    /**
+     * @param file the archive to write, which must be a regular file so its local headers can be completed in place
+     * @return a stream writing the archive, with Zip64 extensions where needed
+     */
+    private static ZipArchiveOutputStream newOutputStream(File file) throws IOException {
+        ZipArchiveOutputStream out = new ZipArchiveOutputStream(file);
+        out.setEncoding("UTF-8");
+        out.setUseZip64(Zip64Mode.AsNeeded);
+        return out;
+    }
+
+    /**
+     * Gathers the deflated entries in temporary files of the given directory, rather than in the temporary directory
+     * of the system, which may be a memory file system too small for large archives.
+     */
+    private static DefaultBackingStoreSupplier newBackingStoreSupplier(File directory) {
+        directory.mkdirs();
+        return new DefaultBackingStoreSupplier(directory.toPath());
+    }
+
+    /**
+     * Finds the files whose content is found in a previous archive with the compression method it would be written
+     * with now. The candidate files are compared on the compression threads.
+     *
+     * @return the entries of the previous archives keyed by path
+     */
+    private Map<String, ReusedEntry> findUnchanged(List<ZipFile> previousArchives, SortedMap<String, File> entries)
+            throws IOException {
+        Map<String, ReusedEntry> unchanged = new TreeMap<>();
+        if (previousArchives.isEmpty()) {
+            return unchanged;
+        }
+        List<Callable<ReusedEntry>> matches = new ArrayList<>();
+        for (Map.Entry<String, File> entry : entries.entrySet()) {
+            String path = entry.getKey();
+            if (path.endsWith("/")) {
+                continue;
+            }
+            List<ReusedEntry> pathCandidates = new ArrayList<>();
+            for (ZipFile archive : previousArchives) {
+                ZipArchiveEntry previousEntry = archive.getEntry(path);
+                if (previousEntry != null
+                        && previousEntry.getMethod() == getMethod(path)
+                        && previousEntry.getSize() == entry.getValue().length()) {
+                    pathCandidates.add(new ReusedEntry(archive, previousEntry));
+                }
+            }
+            if (!pathCandidates.isEmpty()) {
+                File file = entry.getValue();
+                matches.add(() -> findSameContent(file, pathCandidates));
+            }
+        }
+        for (ReusedEntry match : ParallelTasks.invokeAll(matches, Math.max(1, threads))) {
+            if (match != null) {
+                unchanged.put(match.entry.getName(), match);
+            }
+        }
+        return unchanged;
+    }
+
+    /**
+     * @return the first candidate holding the content of the file, <code>null</code> if none does
+     */
+    private static ReusedEntry findSameContent(File file, List<ReusedEntry> candidates) throws IOException {
+        long crc = crc(file);
+        for (ReusedEntry candidate : candidates) {
+            // a matching CRC does not rule out a different content, only the content itself does
+            if (candidate.entry.getCrc() == crc && isSameContent(file, candidate)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isSameContent(File file, ReusedEntry candidate) throws IOException {
+        byte[] buffer = new byte[65536];
+        byte[] previousBuffer = new byte[buffer.length];
+        try (InputStream in = Files.newInputStream(file.toPath());
+                InputStream previous = candidate.archive.getInputStream(candidate.entry)) {
+            for (int n = readFully(in, buffer); n > 0; n = readFully(in, buffer)) {
+                if (readFully(previous, previousBuffer) != n) {
+                    return false;
+                }
+                for (int i = 0; i < n; i++) {
+                    if (buffer[i] != previousBuffer[i]) {
+                        return false;
+                    }
+                }
+            }
+            return previous.read() < 0;
+        }
+    }
+
+    /**
+     * @return the number of bytes read, less than the length of the buffer only at the end of the stream
+     */
+    private static int readFully(InputStream in, byte[] buffer) throws IOException {
+        int length = 0;
+        for (int n = 0; n >= 0 && length < buffer.length; n = in.read(buffer, length, buffer.length - length)) {
+            length += n;
+        }
+        return length;
+    }
+
+    private static ZipFile openPrevious(File previous) {
+        if (previous == null || !previous.isFile()) {
+            return null;
+        }
+        try {
+            return ZipFile.builder().setFile(previous).get();
+        } catch (IOException e) {
+            // not a valid archive, everything is deflated again
+            return null;
+        }
+    }
+
+    private static long crc(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[65536];
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                crc.update(buffer, 0, n);
+            }
+        }
+        return crc.getValue();
+    }
+
+    private int getMethod(String path) {
+        return compress && !compressionPolicy.isStored(path) ? ZipEntry.DEFLATED : ZipEntry.STORED;
+    }
+
+    private ZipArchiveEntry newEntry(String path, File file) {
+        ZipArchiveEntry entry = new ZipArchiveEntry(path);
+        long time = lastModifiedTime != null ? lastModifiedTime.toMillis() : file.lastModified();
+        // same rounding as the plexus archiver, zip times have a two seconds granularity
+        entry.setTime(time + 1999);
+        entry.setUnixMode(path.endsWith("/") ? DIRECTORY_MODE : FILE_MODE);
+        return entry;
+    }
+
+    private void addEntry(ParallelScatterZipCreator creator, String path, File file) {
+        ZipArchiveEntry entry = newEntry(path, file);
+        InputStreamSupplier content;
+        if (path.endsWith("/")) {
+            entry.setMethod(ZipEntry.STORED);
+            content = () -> new ByteArrayInputStream(new byte[0]);
+        } else {
+            entry.setMethod(getMethod(path));
+            content = () -> {
+                try {
+                    return Files.newInputStream(file.toPath());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            };
+        }
+        creator.addArchiveEntry(entry, content);
+    }
+
+    /**
+     * An entry of a previous archive whose compressed bytes are copied to the new archive.
+     */
+    private static final class ReusedEntry {
+        private final ZipFile archive;
+
+        private final ZipArchiveEntry entry;
+
+        ReusedEntry(ZipFile archive, ZipArchiveEntry entry) {
+            this.archive = archive;
+            this.entry = entry;
+        }
+    }
+
+    /**
+     * Deflates files on the compression threads as soon as they are added, in whatever order they come, and writes
+     * them to an archive once all are deflated. {@link #write} copies the bytes of the files which did not change since
+     * from that archive, so the order of the entries of the RAR does not depend on the order the files were added in.
+     * Only files which would be deflated are added; failing to read a file only makes {@link #write} deflate it again.
+     */
+    final class Pipeline implements Closeable {
+        private final File archive;
+
+        private final ExecutorService executor = ParallelTasks.newExecutor(Math.max(1, threads));
+
+        private final ParallelScatterZipCreator creator;
+
+        private final Set<String> added = new HashSet<>();
+
+        private boolean finished;
+
+        private Pipeline(File archive) {
+            this.archive = archive;
+            creator = new ParallelScatterZipCreator(
+                    executor,
+                    newBackingStoreSupplier(archive.getAbsoluteFile().getParentFile()),
+                    Deflater.DEFAULT_COMPRESSION);
+        }
+
+        /**
+         * Hands a file to the compression threads, may be called from any thread.
+         *
+         * @param path the path of the file in the archive
+         * @param file the file, which must not be written to anymore
+         */
+        synchronized void add(String path, File file) {
+            if (finished || path.endsWith("/") || getMethod(path) != ZipEntry.DEFLATED || !added.add(path)) {
+                return;
+            }
+            addEntry(creator, path, file);
+        }
+
+        /**
+         * Waits for the compression threads and writes the deflated files.
+         *
+         * @return the archive holding the deflated files, or <code>null</code> if none could be deflated
+         * @throws IOException if interrupted
+         */
+        synchronized File finish() throws IOException {
+            if (finished) {
+                return archive.isFile() ? archive : null;
+            }
+            finished = true;
+            if (added.isEmpty()) {
+                return null;
+            }
+            try (ZipArchiveOutputStream out = newOutputStream(archive)) {
+                creator.writeTo(out);
+                return archive;
+            } catch (ExecutionException | IOException | UncheckedIOException e) {
+                // a file changed or disappeared while it was deflated, the archive is written without the pipeline
+                Files.deleteIfExists(archive.toPath());
+                return null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while deflating entries");
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        /**
+         * @return the number of files handed to the compression threads
+         */
+        synchronized int getAddedFiles() {
+            return added.size();
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            try {
+                // the deflated files are only released by writing them
+                finish();
+            } finally {
+                Files.deleteIfExists(archive.toPath());
+            }
+        }
+    }
+}
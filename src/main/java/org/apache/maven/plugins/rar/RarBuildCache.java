@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.plugins.rar;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * The RARs built before, named after the build cache key of their inputs. The last modification time of a cached RAR
+ * is the time it was last stored or restored; RARs not used for longer than the maximum age are deleted whenever a
+ * RAR is stored, so the cache does not grow forever.
+ */
+final class RarBuildCache {
+    private final File directory;
+
+    private final long maxAge;
+
+    private final Log log;
+
+    /**
+     * @param directory the directory holding the cached RARs
+     * @param maxAgeDays the number of days a cached RAR is kept when not used, <code>0</code> or less to keep it
+     *            forever
+     * @param log the log
+     */
+    RarBuildCache(File directory, int maxAgeDays, Log log) {
+        this.directory = directory;
+        this.maxAge = TimeUnit.DAYS.toMillis(Math.max(maxAgeDays, 0));
+        this.log = log;
+    }
+
+    /**
+     * Copies the RAR cached under a key, if any.
+     *
+     * @param key the build cache key
+     * @param rarFile the RAR to write
+     * @return <code>true</code> if the RAR was restored
+     * @throws IOException if the cached RAR could not be copied
+     */
+    boolean restore(String key, File rarFile) throws IOException {
+        File cachedRarFile = getCachedRarFile(key);
+        if (!cachedRarFile.isFile()) {
+            return false;
+        }
+        Files.createDirectories(rarFile.getAbsoluteFile().getParentFile().toPath());
+        Files.copy(cachedRarFile.toPath(), rarFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        // marks the RAR as used
+        cachedRarFile.setLastModified(System.currentTimeMillis());
+        return true;
+    }
+
+    /**
+     * Stores a RAR under a key, then deletes the RARs not used for longer than the maximum age. The copy is moved in
+     * place once complete, so concurrent builds never restore a partial RAR; failing to store the RAR only costs a
+     * rebuild later.
+     *
+     * @param key the build cache key
+     * @param rarFile the RAR
+     */
+    void store(String key, File rarFile) {
+        File temporary = null;
+        try {
+            Files.createDirectories(directory.toPath());
+            temporary = Files.createTempFile(directory.toPath(), key, ".tmp").toFile();
+            Files.copy(rarFile.toPath(), temporary.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(temporary.toPath(), getCachedRarFile(key).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            log.warn("Could not store " + rarFile.getName() + " in the build cache: " + e.getMessage());
+        } finally {
+            if (temporary != null) {
+                temporary.delete();
+            }
+        }
+        evict();
+    }
+
+    private File getCachedRarFile(String key) {
+        return new File(directory, key + ".rar");
+    }
+
+    /**
+     * Deletes the RARs, and the files left over by interrupted builds, not modified for longer than the maximum age.
+     */
+    private void evict() {
+        if (maxAge == 0) {
+            return;
+        }
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(".rar") || name.endsWith(".tmp"));
+        if (files == null) {
+            return;
+        }
+        long oldest = System.currentTimeMillis() - maxAge;
+        int deleted = 0;
+        for (File file : files) {
+            if (file.lastModified() < oldest && file.delete()) {
+                deleted++;
+            }
+        }
+        if (deleted > 0) {
+            log.info("Deleted " + deleted + " RARs not used for " + TimeUnit.MILLISECONDS.toDays(maxAge)
+                    + " days from the build cache");
+        }
+    }
+}
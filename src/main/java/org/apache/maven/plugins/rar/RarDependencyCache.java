@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.plugins.rar;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Shares the deflated form of the dependency jars between the RAR modules of a build. The first module packaging a
+ * jar deflates it into a single entry archive in the cache directory, the other modules copy the compressed bytes
+ * from there, see {@link RarArchiveWriter#write(File, java.util.Map, File, java.util.List)}. Archives are keyed by the
+ * coordinates, the path and the SHA-256 of the jar, so they may also be reused by later builds. The last modification
+ * time of an archive is the time it was last written or reused; archives not used for longer than a maximum age are
+ * deleted, so that the archives of outdated snapshots do not pile up. With parallel builds a jar is deflated only once,
+ * modules asking for a jar being deflated wait for it.
+ */
+@Named
+@Singleton
+public class RarDependencyCache {
+    /**
+     * The archives being written. An archive is forgotten once written, later modules find it in the cache
+     * directory, so nothing is kept from one build to the next in a long-lived Maven process.
+     */
+    private final ConcurrentMap<File, CompletableFuture<File>> archives = new ConcurrentHashMap<>();
+
+    /**
+     * Returns an archive holding the jar deflated under the given path, deflating it first if no module did so yet.
+     *
+     * @param coordinates the coordinates of the jar
+     * @param path the path of the jar in the RAR
+     * @param jar the jar
+     * @param writer the writer of the RAR, which decides how the jar is deflated
+     * @param cacheDirectory the directory holding the archives
+     * @return the archive
+     * @throws IOException if the jar could not be read or the archive could not be written
+     */
+    File getDeflated(String coordinates, String path, File jar, RarArchiveWriter writer, File cacheDirectory)
+            throws IOException {
+        String key = new InputsFingerprint()
+                .add("coordinates", coordinates)
+                .add("path", path)
+                .add("sha256", InputsFingerprint.hash(jar))
+                .getValue();
+        File archive = new File(cacheDirectory, key + ".zip");
+
+        CompletableFuture<File> deflated = new CompletableFuture<>();
+        CompletableFuture<File> existing = archives.putIfAbsent(archive, deflated);
+        if (existing != null) {
+            try {
+                File file = existing.join();
+                if (file.isFile()) {
+                    return file;
+                }
+            } catch (CompletionException e) {
+                // deflated again below, the failure was reported to the module which deflated the jar
+            }
+            archives.remove(archive, existing);
+            return getDeflated(coordinates, path, jar, writer, cacheDirectory);
+        }
+
+        try {
+            if (archive.isFile()) {
+                // marks the archive as used
+                archive.setLastModified(System.currentTimeMillis());
+            } else {
+                Files.createDirectories(cacheDirectory.toPath());
+                File temporary =
+                        Files.createTempFile(cacheDirectory.toPath(), key, ".tmp").toFile();
+                try {
+                    writer.deflate(path, jar, temporary);
+                    Files.move(temporary.toPath(), archive.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                } finally {
+                    Files.deleteIfExists(temporary.toPath());
+                }
+            }
+            deflated.complete(archive);
+            return archive;
+        } catch (IOException | RuntimeException e) {
+            deflated.completeExceptionally(e);
+            throw e;
+        } finally {
+            archives.remove(archive, deflated);
+        }
+    }
+
+    /**
+     * Deletes the archives, and the files left over by interrupted builds, not used for longer than the maximum age.
+     * An archive deleted while another module is about to copy from it is merely deflated again by that module.
+     *
+     * @param cacheDirectory the directory holding the archives
+     * @param maxAgeDays the number of days an archive is kept when not used, <code>0</code> or less to keep it forever
+     * @param log the log
+     */
+    void evict(File cacheDirectory, int maxAgeDays, Log log) {
+        if (maxAgeDays <= 0) {
+            return;
+        }
+        File[] files = cacheDirectory.listFiles((dir, name) -> name.endsWith(".zip") || name.endsWith(".tmp"));
+        if (files == null) {
+            return;
+        }
+        long oldest = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(maxAgeDays);
+        int deleted = 0;
+        for (File file : files) {
+            if (file.lastModified() < oldest && file.delete()) {
+                deleted++;
+            }
+        }
+        if (deleted > 0) {
+            log.info("Deleted " + deleted + " dependencies not used for " + maxAgeDays
+                    + " days from the RAR dependency cache");
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.plugins.rar;
+
+import javax.inject.Inject;
+
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.project.MavenProjectHelper;
+import org.apache.maven.shared.filtering.MavenResourcesFiltering;
+import org.codehaus.plexus.archiver.jar.JarArchiver;
+
+/**
+ * Builds an exploded RAR in the work directory, ready to be deployed as a directory. The content is the same as the
+ * content of the RAR built by the <code>rar</code> goal, including the manifest and the Maven descriptor, but no
+ * archive is written. Files which did not change since the previous build are left untouched, files which are no
+ * longer part of the RAR are deleted. Libraries are always copied, linked or cloned according to the
+ * <code>stagingStrategy</code>, the <code>directArchive</code> option does not apply.
+ *
+ * @since 3.2.0
+ */
+@Mojo(
+        name = "exploded",
+        threadSafe = true,
+        defaultPhase = LifecyclePhase.PACKAGE,
+        requiresDependencyResolution = ResolutionScope.TEST)
+public class RarExplodedMojo extends RarMojo {
+    @Inject
+    public RarExplodedMojo(
+            JarArchiver jarArchiver,
+            MavenResourcesFiltering mavenResourcesFiltering,
+            MavenProjectHelper projectHelper,
+            RarDependencyCache dependencyCache) {
+        super(jarArchiver, mavenResourcesFiltering, projectHelper, dependencyCache);
+    }
+
+    @Override
+    protected boolean isExploded() {
+        return true;
+    }
+}
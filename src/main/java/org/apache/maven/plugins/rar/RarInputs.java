@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.plugins.rar;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.maven.archiver.MavenArchiveConfiguration;
+import org.apache.maven.archiver.MavenArchiver;
+import org.apache.maven.artifact.DependencyResolutionRequiredException;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.archiver.jar.ManifestException;
+
+/**
+ * The inputs of a RAR: the options and files set by the mojo, the resources and the archive configuration. Their
+ * fingerprint lets a build skip a RAR whose inputs did not change and keys the build cache; the fingerprint of the
+ * last build is kept next to the RAR, with the size and last modification time of the RAR it describes.
+ */
+final class RarInputs {
+    private final MavenSession session;
+
+    private final MavenProject project;
+
+    private final MavenArchiveConfiguration archive;
+
+    private final ResourceStager resources;
+
+    private final Map<String, Object> options = new LinkedHashMap<>();
+
+    private final Map<String, File> files = new LinkedHashMap<>();
+
+    /**
+     * @param session the session, may be <code>null</code>
+     * @param project the project
+     * @param archive the archive configuration
+     * @param resources the resources of the RAR
+     */
+    RarInputs(
+            MavenSession session, MavenProject project, MavenArchiveConfiguration archive, ResourceStager resources) {
+        this.session = session;
+        this.project = project;
+        this.archive = archive;
+        this.resources = resources;
+    }
+
+    /**
+     * @param name the name of the option
+     * @param value the value of the option, may be <code>null</code>
+     * @return these inputs
+     */
+    RarInputs add(String name, Object value) {
+        options.put(name, value);
+        return this;
+    }
+
+    /**
+     * @param name the name of the file, unique
+     * @param file the file, may be <code>null</code> or missing
+     * @return these inputs
+     */
+    RarInputs addFile(String name, File file) {
+        files.put(name, file);
+        return this;
+    }
+
+    /**
+     * Computes the fingerprint of the inputs.
+     *
+     * @param content <code>true</code> to fingerprint the content of the files rather than their path, size and last
+     *            modification time
+     * @return the hex encoded fingerprint
+     * @throws IOException if a file could not be read
+     * @throws ManifestException if the manifest could not be computed
+     * @throws DependencyResolutionRequiredException if the manifest needs the unresolved dependencies
+     */
+    String computeFingerprint(boolean content)
+            throws IOException, ManifestException, DependencyResolutionRequiredException {
+        InputsFingerprint fingerprint = new InputsFingerprint(content);
+        for (Map.Entry<String, Object> option : options.entrySet()) {
+            fingerprint.add(option.getKey(), option.getValue());
+        }
+        for (Map.Entry<String, File> file : files.entrySet()) {
+            fingerprint.addFile(file.getKey(), file.getValue());
+        }
+        resources.addTo(fingerprint);
+
+        fingerprint
+                .add("archive.compress", archive.isCompress())
+                .add("archive.recompressAddedZips", archive.isRecompressAddedZips())
+                .add("archive.addMavenDescriptor", archive.isAddMavenDescriptor())
+                .addFile("archive.manifestFile", archive.getManifestFile())
+                .addFile("archive.pomPropertiesFile", archive.getPomPropertiesFile());
+        // the generated manifest covers the manifest configuration, entries and sections
+        MavenArchiver archiver = new MavenArchiver();
+        archiver.setCreatedBy("Maven RAR Plugin", "org.apache.maven.plugins", "maven-rar-plugin");
+        ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+        archiver.getManifest(session, project, archive).write(manifest);
+        fingerprint.add("archive.manifest", new String(manifest.toByteArray(), StandardCharsets.UTF_8));
+        return fingerprint.getValue();
+    }
+
+    /**
+     * @param rarFile the RAR
+     * @param fingerprint the fingerprint of the current inputs
+     * @return <code>true</code> if the RAR was built from inputs with that fingerprint and did not change since
+     */
+    static boolean isUpToDate(File rarFile, String fingerprint) {
+        File fingerprintFile = getFingerprintFile(rarFile);
+        if (!rarFile.isFile() || !fingerprintFile.isFile()) {
+            return false;
+        }
+        try {
+            List<String> lines = Files.readAllLines(fingerprintFile.toPath(), StandardCharsets.UTF_8);
+            return lines.size() == 2
+                    && lines.get(0).equals(fingerprint)
+                    && lines.get(1).equals(getOutputStamp(rarFile));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param rarFile the RAR, just built
+     * @param fingerprint the fingerprint of its inputs
+     * @throws IOException if the fingerprint could not be written
+     */
+    static void writeFingerprint(File rarFile, String fingerprint) throws IOException {
+        String content = fingerprint + '\n' + getOutputStamp(rarFile) + '\n';
+        Files.write(getFingerprintFile(rarFile).toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Deletes the fingerprint of a RAR about to be rebuilt, so that a failed build is not taken as up to date.
+     *
+     * @param rarFile the RAR
+     * @throws IOException if the fingerprint could not be deleted
+     */
+    static void deleteFingerprint(File rarFile) throws IOException {
+        Files.deleteIfExists(getFingerprintFile(rarFile).toPath());
+    }
+
+    private static File getFingerprintFile(File rarFile) {
+        return new File(rarFile.getPath() + ".fingerprint");
+    }
+
+    private static String getOutputStamp(File rarFile) {
+        return rarFile.length() + "|" + rarFile.lastModified();
+    }
+}
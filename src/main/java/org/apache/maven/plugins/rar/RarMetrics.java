@@ -0,0 +1,184 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.plugins.rar;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wall time and I/O of the phases of a RAR build, written as JSON so builds can be compared by tools.
+ */
+final class RarMetrics {
+    /**
+     * The name of the phase that writes the archive, the only one with a compression ratio.
+     */
+    static final String ARCHIVE = "archive";
+
+    /**
+     * A phase of the build. The bytes read and written only count the data the plugin moved itself, a file that is
+     * hard linked or left in place because it did not change counts as a file but not as bytes.
+     */
+    static final class Phase {
+        private final String name;
+
+        private final long start = System.nanoTime();
+
+        private long nanos;
+
+        private int files;
+
+        private long bytesRead;
+
+        private long bytesWritten;
+
+        private Phase(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Ends the phase.
+         *
+         * @param files the number of files the phase handled
+         * @param bytesRead the number of bytes read
+         * @param bytesWritten the number of bytes written
+         */
+        void end(int files, long bytesRead, long bytesWritten) {
+            this.nanos = System.nanoTime() - start;
+            this.files = files;
+            this.bytesRead = bytesRead;
+            this.bytesWritten = bytesWritten;
+        }
+
+        long getMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(nanos);
+        }
+
+        /**
+         * @return the bytes written per byte read, or <code>-1</code> if nothing was read
+         */
+        double getRatio() {
+            return bytesRead == 0 ? -1 : (double) bytesWritten / bytesRead;
+        }
+    }
+
+    private final List<Phase> phases = new ArrayList<>();
+
+    private final long start = System.nanoTime();
+
+    /**
+     * Starts a phase, to be ended with {@link Phase#end(int, long, long)}.
+     *
+     * @param name the name of the phase
+     * @return the phase
+     */
+    Phase start(String name) {
+        Phase phase = new Phase(name);
+        phases.add(phase);
+        return phase;
+    }
+
+    /**
+     * @return a one-line summary of all phases
+     */
+    String getSummary() {
+        StringBuilder summary = new StringBuilder("RAR built in ")
+                .append(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start))
+                .append(" ms:");
+        for (Phase phase : phases) {
+            summary.append(' ')
+                    .append(phase.name)
+                    .append(' ')
+                    .append(phase.getMillis())
+                    .append(" ms (")
+                    .append(phase.files)
+                    .append(" files, ")
+                    .append(phase.bytesWritten / 1024)
+                    .append(" KiB written");
+            if (ARCHIVE.equals(phase.name) && phase.getRatio() >= 0) {
+                summary.append(", ratio ").append(String.format(Locale.ROOT, "%.2f", phase.getRatio()));
+            }
+            summary.append("),");
+        }
+        summary.setLength(summary.length() - 1);
+        return summary.toString();
+    }
+
+    /**
+     * Writes the metrics as JSON.
+     *
+     * @param file the file to write
+     * @param rarFile the RAR that was built
+     * @param upToDate <code>true</code> if the RAR was up to date and not built again
+     * @throws IOException if the file could not be written
+     */
+    void write(File file, File rarFile, boolean upToDate) throws IOException {
+        StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"rar\": ").append(quote(rarFile.getAbsolutePath())).append(",\n");
+        json.append("  \"upToDate\": ").append(upToDate).append(",\n");
+        json.append("  \"millis\": ")
+                .append(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start))
+                .append(",\n");
+        json.append("  \"phases\": [");
+        for (int i = 0; i < phases.size(); i++) {
+            Phase phase = phases.get(i);
+            json.append(i == 0 ? "\n" : ",\n")
+                    .append("    {\"name\": ")
+                    .append(quote(phase.name))
+                    .append(", \"millis\": ")
+                    .append(phase.getMillis())
+                    .append(", \"files\": ")
+                    .append(phase.files)
+                    .append(", \"bytesRead\": ")
+                    .append(phase.bytesRead)
+                    .append(", \"bytesWritten\": ")
+                    .append(phase.bytesWritten);
+            if (ARCHIVE.equals(phase.name) && phase.getRatio() >= 0) {
+                json.append(", \"ratio\": ").append(String.format(Locale.ROOT, "%.4f", phase.getRatio()));
+            }
+            json.append('}');
+        }
+        json.append(phases.isEmpty() ? "]\n" : "\n  ]\n").append("}\n");
+
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            Files.createDirectories(parent.toPath());
+        }
+        Files.write(file.toPath(), json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
@@ -22,11 +22,28 @@ import javax.inject.Inject;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import org.apache.maven.archiver.MavenArchiveConfiguration;
 import org.apache.maven.archiver.MavenArchiver;
@@ -36,6 +53,7 @@ import org.apache.maven.artifact.resolver.filter.ScopeArtifactFilter;
 import org.apache.maven.execution.MavenSession;
 import org.apache.maven.model.Resource;
 import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecution;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
@@ -48,7 +66,10 @@ import org.apache.maven.shared.filtering.MavenResourcesExecution;
 import org.apache.maven.shared.filtering.MavenResourcesFiltering;
 import org.codehaus.plexus.archiver.jar.JarArchiver;
 import org.codehaus.plexus.archiver.jar.ManifestException;
+import org.codehaus.plexus.util.DirectoryScanner;
 import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
 
 /**
  * Builds J2EE Resource Adapter Archive (RAR) files.
@@ -64,6 +85,10 @@ import org.codehaus.plexus.util.FileUtils;
 public class RarMojo extends AbstractMojo {
     private static final String RA_XML_URI = "META-INF/ra.xml";
 
+    private static final String ANNOTATION_INDEX_URI = "META-INF/annotations.idx";
+
+    private static final String BUILD_CACHE_KEY_PROPERTY = "rar.buildCacheKey";
+
     /**
      * Single directory for extra files to include in the RAR.
      */
@@ -90,7 +115,9 @@ public class RarMojo extends AbstractMojo {
     private File manifestFile;
 
     /**
-     * Directory that resources are copied to during the build.
+     * Directory that resources are copied to during the build. Files that are still identical to their source are
+     * not copied again, and files a previous build placed there which are no longer part of the RAR are deleted; the
+     * files placed by the last build are listed in <code>${workDirectory}.staged</code>.
      */
     @Parameter(defaultValue = "${project.build.directory}/${project.build.finalName}", required = true)
     private String workDirectory;
@@ -118,6 +145,19 @@ public class RarMojo extends AbstractMojo {
     @Parameter(property = "maven.rar.classifier", defaultValue = "")
     private String classifier;
 
+    /**
+     * Classified variants of the RAR built by the same execution, each one with its own <code>classifier</code> and
+     * optionally its own <code>includeJar</code> and <code>rarResources</code> settings. Every variant is attached to
+     * the project. The entries a variant shares with the main RAR or a previous variant are copied from it as they
+     * are, compressed data included, and the libraries are added from their source location: only the resources of a
+     * variant are placed in its own work directory, the work directory of the execution suffixed with the classifier.
+     * Variants are ignored by the <code>exploded</code> goal.
+     *
+     * @since 3.2.0
+     */
+    @Parameter
+    private List<RarVariant> variants;
+
     /**
      * The archive configuration to use.
      * See <a href="https://maven.apache.org/shared/maven-archiver/index.html">Maven Archiver Reference</a>.
@@ -170,6 +210,18 @@ public class RarMojo extends AbstractMojo {
     @Parameter(property = "maven.resources.overwrite", defaultValue = "false")
     private boolean overwrite;
 
+    /**
+     * Whether filtered resources are only filtered again when their content or the filtering configuration changed.
+     * The configuration covers the project model and properties, the user and system properties, the filter files,
+     * the delimiters, the escape options and the encoding; expressions referring to anything else, like the settings,
+     * are not tracked, which is why this is off by default. The hashes of the filtered files are stored in
+     * <code>${workDirectory}.filtered</code>.
+     *
+     * @since 3.2.0
+     */
+    @Parameter(property = "maven.rar.incrementalFiltering", defaultValue = "false")
+    private boolean incrementalFiltering;
+
     /**
      * Copy any empty directories included in the Resources.
      *
@@ -274,6 +326,12 @@ public class RarMojo extends AbstractMojo {
     @Parameter(defaultValue = "${project}", readonly = true, required = true)
     private MavenProject project;
 
+    /**
+     * The execution of this goal, telling the configured parameters from their defaults.
+     */
+    @Parameter(defaultValue = "${mojoExecution}", readonly = true)
+    private MojoExecution mojoExecution;
+
     /**
      * Timestamp for reproducible output archive entries, either formatted as ISO 8601
      * <code>yyyy-MM-dd'T'HH:mm:ssXXX</code> or as an int representing seconds since the epoch (like
@@ -284,6 +342,365 @@ public class RarMojo extends AbstractMojo {
     @Parameter(defaultValue = "${project.build.outputTimestamp}")
     private String outputTimestamp;
 
+    /**
+     * Add the generated jar file, the dependencies, the <code>ra.xml</code> file and the custom manifest file
+     * straight to the RAR from their source locations instead of copying them to the {@link #workDirectory}
+     * first. Only the resources, which may be filtered, are still copied to the {@link #workDirectory}.
+     *
+     * @since 3.2.0
+     */
+    @Parameter(property = "maven.rar.directArchive", defaultValue = "false")
+    private boolean directArchive;
+
+    /**
+     * Skip the assembly of the RAR when none of its inputs changed since the previous build. A fingerprint of the
+     * dependencies, the resources, the <code>ra.xml</code> and manifest files, the filter properties, the values of
+     * the properties the filtered resources refer to and the archive configuration is stored next to the generated
+     * RAR and compared on the next build; when it matches, the existing RAR is attached as is. Properties the filtered
+     * resources do not refer to, like the environment, are left out.
+     *
+     * @since 3.2.0
+     */
+    @Parameter(property = "maven.rar.skipIfUpToDate", defaultValue = "false")
+    private boolean skipIfUpToDate;
+
+    /**
+     * Whether to restore the RAR from {@link #buildCacheDirectory} when a RAR was built from the same inputs before.
+     * The build cache key is a SHA-256 over the content of the inputs also covered by {@link #skipIfUpToDate} and the
+     * version of the plugin, it does not depend on paths or last modification times and is the same on every
+     * checkout of the project. The key is set as the <code>rar.buildCacheKey</code> project property for external
+     * build caches. On a hit the work directory is not populated.
+     *
+     * @since 3.2.0
+     */
+    @Parameter(property = "maven.rar.buildCache", defaultValue = "false")
+    private boolean buildCache;
+
+    /**
+     * The directory holding the RARs of {@link #buildCache}, named after their build cache key.
+     *
+     * @since 3.2.0
+     */
+    @Parameter(property = "maven.rar.buildCacheDirectory", defaultValue = "${user.home}/.m2/rar-build-cache")
+    private File buildCacheDirectory;
+
+    /**
+     * The number of days a RAR of the {@link #buildCache} is kept when it is neither stored nor restored again. The
+     * expired RARs are deleted whenever a RAR is stored in the cache. <code>0</code> keeps the RARs until the
+     * {@link #buildCacheDirectory} is deleted by hand.
+     *
+     * @since 3.2.0
+     */
+    @Parameter(property = "maven.rar.buildCacheMaxAge", defaultValue = "30")
+    private int buildCacheMaxAge = 30;
+
+    /**
+     * The version of this plugin, part of the build cache key.
+     */
+    @Parameter(defaultValue = "${plugin.version}", readonly = true)
+    private String pluginVersion;
+
+    /**
+     * The maximum number of files copied at the same time when the generated jar file and the dependencies are
+     * copied to the {@link #workDirectory}. The default of <code>1</code> copies one file after the other.
+     *
+     * @since 3.2.0
+     */
+    @Parameter(property = "maven.rar.copyThreads", defaultValue = "1")
+    private int copyThreads = 1;
+
+    /**
+     * How the generated jar file and the dependencies are placed in the {@link #workDirectory}:
+     * <ul>
+     * <li><code>copy</code> copies the files,</li>
+     * <li><code>hardlink</code> creates hard links to the files, typically in the local repository,</li>
+     * <li><code>reflink</code> (or <code>clone</code>) creates copy-on-write clones of the files, which needs a file
+     * system such as Btrfs, XFS or APFS.</li>
+     * </ul>
+     * The files are copied when the file system cannot link or clone them.
+     *
+     * @since 3.2.0
+     */
+    @Parameter(property = "maven.rar.stagingStrategy", defaultValue = "copy")
+    private String stagingStrategy = "copy";
+
+    /**
+     * Whether the RAR is written by the plugin itself instead of the plexus archiver, deflating its entries on
+     * {@link #compressionThreads} threads. The entries are sorted by path and the archive does not depend on the number
+     * of threads, so with {@link #outputTimestamp} it is byte for byte reproducible.
+     *
+     * @since 3.2.0
+     */
+    @Parameter(property = "maven.rar.parallelCompression", defaultValue = "false")
+    private boolean parallelCompression;
+
+    /**
+     * How the RAR is written: <code>plexus</code> writes it with the plexus archiver, which supports every option of
+     * the archive configuration, <code>direct</code> writes it with a writer deflating in parallel and copying the
+     * unchanged entries of other archives as they are, see {@link #parallelCompression}. If not set, the direct
+     * backend is used when {@link #parallelCompression}, {@link #incrementalArchive}, {@link #pipelined},
+     * {@link #shareDependencies} or {@link #variants} need it, the plexus backend otherwise.
+     * <p>
+     * The heap needed by the direct backend only grows with the number of entries, not with the size of the files:
+     * large stored files are streamed to the RAR and Zip64 extensions are used for RARs over 4 GB or 65,535 entries.
+     *
+     * @since 3.2.0
+     */
+    @Parameter(property = "maven.rar.archiveBackend")
+    private String archiveBackend;
+
+    /**
+     * Whether to update the existing RAR instead of writing it from scratch. The entries whose content, size and
+     * compression method did not change since the previous build are copied from the existing RAR as they are
+     * compressed in it, only the changed and new entries are deflated again; the other entries of the existing RAR
+     * are dropped. The RAR is written as with {@link #parallelCompression}, so the updated RAR is the same as a RAR
+     * written from scratch and stays reproducible with {@link #outputTimestamp}.
+     *
+     * @since 3.2.0
+     */
+    @Parameter(property = "maven.rar.incrementalArchive", defaultValue = "false")
+    private boolean incrementalArchive;
+
+    /**
+     * Whether to deflate the files of the RAR while the rest of the RAR is still being prepared. The dependencies are
+     * handed to {@link #compressionThreads} threads as soon as they are staged and the resources as soon as they are
+     * filtered, so that compressing overlaps with copying, filtering and indexing. The RAR is written as with
+     * {@link #parallelCompression} in the order of the paths, reusing the deflated bytes of the files which did not
+     * change in the meantime, so it is the same as without this option.
+     *
+     * @since 3.2.0
+     */
+    @Parameter(property = "maven.rar.pipelined", defaultValue = "false")
+    private boolean pipelined;
+
+    /**
+     * Whether to share the deflated dependency jars with the other RAR modules of the build. The first module
+     * packaging a jar deflates it to {@link #dependencyCacheDirectory}, the other modules copy the compressed bytes
+     * from there instead of deflating the jar again. Jars are stored rather than deflated by default, see
+     * {@link #storeCompressedEntries}, so this option only has an effect with <code>storeCompressedEntries</code>
+     * disabled or with jars matching {@link #storeExcludes}; otherwise a warning is logged. The RAR is written as with
+     * {@link #parallelCompression} and is the same as without this option.
+     *
+     * @since 3.2.0
+     */
+    @Parameter(property = "maven.rar.shareDependencies", defaultValue = "false")
+    private boolean shareDependencies;
+
+    /**
+     * The directory holding the deflated dependency jars shared by {@link #shareDependencies}. The jars are keyed by
+     * their coordinates and content, so the directory may be shared by subsequent builds as well, until it is cleaned
+     * with the top level project or its jars expire, see {@link #dependencyCacheMaxAge}.
+     *
+     * @since 3.2.0
+     */
+    @Parameter(
+            property = "maven.rar.dependencyCacheDirectory",
+            defaultValue = "${session.topLevelProject.build.directory}/rar-dependency-cache")
+    private File dependencyCacheDirectory;
+
+    /**
+     * The number of days a deflated jar of the {@link #dependencyCacheDirectory} is kept when no module uses it. The
+     * expired jars are deleted whenever a module uses the cache. <code>0</code> keeps the jars until the directory is
+     * deleted.
+     *
+     * @since 3.2.0
+     */
+    @Parameter(property = "maven.rar.dependencyCacheMaxAge", defaultValue = "7")
+    private int dependencyCacheMaxAge = 7;
+
+    /**
+     * The number of threads deflating entries with {@link #parallelCompression}, <code>0</code> uses one thread per
+     * available processor.
+     *
+     * @since 3.2.0
+     */
+    @Parameter(property = "maven.rar.compressionThreads", defaultValue = "0")
+    private int compressionThreads;
+
+    /**
+     * With {@link #parallelCompression}, RARs whose files add up to fewer bytes than this are deflated on a single
+     * thread, starting threads does not pay off for small archives.
+     *
+     * @since 3.2.0
+     */
+    @Parameter(property = "maven.rar.parallelCompressionThreshold", defaultValue = "1048576")
+    private long parallelCompressionThreshold = 1048576;
+
+    /**
+     * Whether entries that are already compressed, like the libraries of the RAR, are stored instead of being deflated
+     * a second time. Application servers can then also read nested jars without inflating them. The files stored are
+     * selected by {@link #storeIncludes} and {@link #storeExcludes} with {@link #parallelCompression}; the plexus
+     * archiver recognizes nested archives by their content instead, as with the <code>recompressAddedZips</code>
+     * option of the {@link #archive} configuration. An explicitly configured <code>recompressAddedZips</code> wins
+     * over this option with the plexus archiver.
+     *
+     * @since 3.2.0
+     */
+    @Parameter(property = "maven.rar.storeCompressedEntries", defaultValue = "true")
+    private boolean storeCompressedEntries = true;
+
+    /**
+     * The patterns of the paths inside the RAR which are stored without compression, see
+     * {@link #storeCompressedEntries}. By default archives such as <code>*.jar</code>, <code>*.war</code> or
+     * <code>*.zip</code>, compressed files and common image formats are stored. Only the direct archive backend
+     * selects the stored files by path, the plexus archiver ignores these patterns with a warning.
+     *
+     * @since 3.2.0
+     */
+    @Parameter
+    private List<String> storeIncludes;
+
+    /**
+     * The patterns of the paths inside the RAR which are deflated even though they match {@link #storeIncludes}.
+     * Like those, only used by the direct archive backend.
+     *
+     * @since 3.2.0
+     */
+    @Parameter
+    private List<String> storeExcludes;
+
+    /**
+     * Whether to check the generated jar file and the dependencies for classes and resources packaged in more than one
+     * jar, as happens with relocated artifacts or libraries whose groupId changed: <code>ignore</code> does not check,
+     * <code>warn</code> reports the duplicates and <code>fail</code> also fails the build when an entry is found with
+     * different content. Entries are compared by name and CRC, only the central directories of the jars are read.
+     *
+     * @since 3.2.0
+     */
+    @Parameter(property = "maven.rar.duplicateEntries", defaultValue = "ignore")
+    private String duplicateEntries = "ignore";
+
+    /**
+     * Whether to leave out the dependencies whose classes and resources are all found with the same content in the
+     * other jars. Of identical jars, the first one is kept.
+     *
+     * @since 3.2.0
+     */
+    @Parameter(property = "maven.rar.excludeRedundantJars", defaultValue = "false")
+    private boolean excludeRedundantJars;
+
+    /**
+     * The patterns of the entries the {@link #duplicateEntries} check ignores. The files directly in
+     * <code>META-INF</code>, like manifests, signatures and licenses, the Maven descriptors, the service files and the
+     * module descriptors are always ignored.
+     *
+     * @since 3.2.0
+     */
+    @Parameter
+    private List<String> duplicateExcludes;
+
+    /**
+     * Whether the generated jar file and the dependencies are merged into a single jar inside the RAR instead of being
+     * nested one by one. Fewer nested jars mean fewer open files and faster class lookups in the container. The
+     * entries are copied as they are compressed in their jar; an entry found in more than one jar is taken from the
+     * first, see {@link #flattenDuplicates}, while the service files below <code>META-INF/services</code> are merged.
+     * The manifests, signatures and module descriptors of the jars are left out.
+     *
+     * @since 3.2.0
+     */
+    @Parameter(property = "maven.rar.flatten", defaultValue = "false")
+    private boolean flatten;
+
+    /**
+     * What to do when {@link #flatten flattening} finds an entry in more than one jar with different content:
+     * <code>warn</code> keeps the entry of the first jar and logs a warning, <code>ignore</code> keeps it silently and
+     * <code>fail</code> fails the build. The generated jar file comes first, followed by the dependencies in the order
+     * of the project.
+     *
+     * @since 3.2.0
+     */
+    @Parameter(property = "maven.rar.flattenDuplicates", defaultValue = "warn")
+    private String flattenDuplicates = "warn";
+
+    /**
+     * The name of the merged jar inside the RAR when {@link #flatten flattening}, by default the name of the
+     * generated jar file.
+     *
+     * @since 3.2.0
+     */
+    @Parameter
+    private String flattenedJarName;
+
+    /**
+     * Whether to write an index of the runtime visible annotations of the classes in the jars of the RAR to
+     * <code>META-INF/annotations.idx</code>, so that a container can find the classes annotated with
+     * <code>@Connector</code>, <code>@ConnectionDefinition</code>, <code>@Activation</code> or CDI annotations without
+     * scanning every class when the RAR is deployed. Each line is <code>annotation element jar</code>, where the
+     * element is a class, <code>class#field</code> or <code>class#method(descriptor)</code>. The jars are scanned in
+     * parallel and what was found is cached by the hash of their content in <code>${workDirectory}.annotations</code>,
+     * so unchanged jars are not scanned again.
+     *
+     * @since 3.2.0
+     */
+    @Parameter(property = "maven.rar.annotationIndex", defaultValue = "false")
+    private boolean annotationIndex;
+
+    /**
+     * Whether to write a package index of the jars of the RAR to <code>META-INF/INDEX.LIST</code>, in the format of the
+     * jar specification, so that class loaders honoring it know which jars hold a package without searching them one
+     * after the other. Packages whose classes are spread over more than one jar are reported as warnings. Only the
+     * central directories of the jars are read, in parallel. It replaces the deprecated <code>index</code> option of
+     * the {@link #archive} configuration, which should not be set along with it.
+     *
+     * @since 3.2.0
+     */
+    @Parameter(property = "maven.rar.packageIndex", defaultValue = "false")
+    private boolean packageIndex;
+
+    /**
+     * Whether to remove the classes of the jars in the RAR that cannot be reached from the connector classes. The
+     * roots are the classes named in <code>META-INF/ra.xml</code>, the classes annotated with a connector, injection,
+     * CDI or JPA annotation, all classes of jars with a <code>META-INF/beans.xml</code> or
+     * <code>META-INF/orm.xml</code>, the providers listed in <code>META-INF/services</code> and the
+     * {@link #shrinkRoots}. A class reaches the classes of its constant pool, descriptors and signatures and the
+     * string constants that look like class names. Classes only loaded by names built at runtime must be added to the
+     * {@link #shrinkRoots}, a warning is logged when kept classes use reflection. Resources are kept. The jars are
+     * rewritten without decompressing the kept entries; a jar staged as a link to the local repository is replaced,
+     * never modified.
+     *
+     * @since 3.2.0
+     */
+    @Parameter(property = "maven.rar.shrink", defaultValue = "false")
+    private boolean shrink;
+
+    /**
+     * Further classes kept when {@link #shrink shrinking}, as patterns of binary class names like
+     * <code>com.example.spi.**</code> or <code>com.example.*Factory</code>.
+     *
+     * @since 3.2.0
+     */
+    @Parameter
+    private List<String> shrinkRoots;
+
+    /**
+     * Whether to write the {@link #metricsFile metrics} of the build.
+     *
+     * @since 3.2.0
+     */
+    @Parameter(property = "maven.rar.writeMetrics", defaultValue = "false")
+    private boolean writeMetrics;
+
+    /**
+     * The JSON file the wall time, file count, bytes read and written of every phase of the build, and the compression
+     * ratio of the archive, are written to with {@link #writeMetrics}. The phases are <code>duplicates</code> with {@link #duplicateEntries},
+     * <code>jar</code> unless {@link #flatten flattening}, <code>dependencies</code>, <code>resources</code>,
+     * <code>descriptors</code>, <code>shrink</code> with {@link #shrink}, <code>annotations</code> with
+     * {@link #annotationIndex}, <code>packages</code> with {@link #packageIndex} and <code>archive</code>. Executions
+     * building several RARs in the same project should use distinct files.
+     *
+     * @since 3.2.0
+     */
+    @Parameter(property = "maven.rar.metricsFile", defaultValue = "${project.build.directory}/rar-metrics.json")
+    private File metricsFile;
+
+    /**
+     * Whether to log a one-line summary of the {@link #metricsFile metrics} of the build.
+     *
+     * @since 3.2.0
+     */
+    @Parameter(property = "maven.rar.printMetrics", defaultValue = "false")
+    private boolean printMetrics;
+
     /**
      * The Jar archiver.
      */
@@ -299,16 +716,51 @@ public class RarMojo extends AbstractMojo {
      */
     private final MavenProjectHelper projectHelper;
 
-    private File buildDir;
+    /**
+     * @since 3.2.0
+     */
+    private final RarDependencyCache dependencyCache;
+
+    /**
+     * Files added to the RAR from their source location, keyed by their path inside the RAR.
+     */
+    private final Map<String, File> archiveEntries = new LinkedHashMap<>();
+
+    /**
+     * Paths of the files this build placed in the work directory, relative to it.
+     */
+    private final Set<String> stagedFiles = new TreeSet<>();
+
+    /**
+     * Paths of the resources this build placed in the work directory, relative to it.
+     */
+    private final Set<String> stagedResources = new TreeSet<>();
+
+    /**
+     * The coordinates of the dependency jars of the RAR, keyed by their path inside the RAR.
+     */
+    private final Map<String, String> dependencyCoordinates = new HashMap<>();
+
+    /**
+     * The compression stage of the {@link #pipelined} mode, <code>null</code> outside of it.
+     */
+    private RarArchiveWriter.Pipeline pipeline;
+
+    /**
+     * The settings of the RAR being built.
+     */
+    private RarPackaging packaging;
 
     @Inject
     public RarMojo(
             JarArchiver jarArchiver,
             MavenResourcesFiltering mavenResourcesFiltering,
-            MavenProjectHelper projectHelper) {
+            MavenProjectHelper projectHelper,
+            RarDependencyCache dependencyCache) {
         this.jarArchiver = jarArchiver;
         this.mavenResourcesFiltering = mavenResourcesFiltering;
         this.projectHelper = projectHelper;
+        this.dependencyCache = dependencyCache;
     }
 
     /**
@@ -321,79 +773,795 @@ public class RarMojo extends AbstractMojo {
             return;
         }
 
-        // Check if jar file is there and if requested, copy it
+        RarPackaging mainPackaging = newMainPackaging();
+        if (isExploded()) {
+            packaging = mainPackaging;
+            archiveEntries.clear();
+            stagedFiles.clear();
+            dependencyCoordinates.clear();
+            stageContent(new RarMetrics());
+            writeExplodedMetadata();
+            getLog().info("Exploded RAR in " + getBuildDir());
+            return;
+        }
+
+        List<File> rarFiles = new ArrayList<>();
+        rarFiles.add(packageRar(mainPackaging, Collections.emptyList()));
+        if (variants != null) {
+            Set<String> classifiers = new HashSet<>();
+            classifiers.add(classifier == null ? "" : classifier.trim());
+            for (RarVariant rarVariant : variants) {
+                String variantClassifier = rarVariant.getClassifier();
+                if (variantClassifier == null || variantClassifier.trim().isEmpty()) {
+                    throw new MojoExecutionException("Every RAR variant needs a classifier");
+                }
+                if (!classifiers.add(variantClassifier.trim())) {
+                    throw new MojoExecutionException("Duplicate RAR classifier '" + variantClassifier + "'");
+                }
+                RarPackaging variantPackaging = mainPackaging.forVariant(rarVariant);
+                getLog().info("Building RAR variant " + variantPackaging.getClassifier());
+                rarFiles.add(packageRar(variantPackaging, rarFiles));
+            }
+        }
+    }
+
+    /**
+     * Builds and attaches the RAR, unless it is up to date or restored from the build cache.
+     *
+     * @param packaging the settings of the RAR
+     * @param sources RAR files whose entries are copied as they are when they did not change, making sure the RAR is
+     *            written by the {@link RarArchiveWriter} if not empty
+     * @return the RAR file
+     */
+    private File packageRar(RarPackaging packaging, List<File> sources) throws MojoExecutionException {
+        this.packaging = packaging;
+        archiveEntries.clear();
+        stagedFiles.clear();
+        dependencyCoordinates.clear();
+        RarMetrics metrics = new RarMetrics();
+
+        File rarFile = getRarFile(outputDirectory, finalName, packaging.getClassifier());
+        RarInputs inputs = getInputs();
+        String fingerprint = null;
+        if (skipIfUpToDate) {
+            fingerprint = computeInputsFingerprint(inputs, false);
+            if (RarInputs.isUpToDate(rarFile, fingerprint)) {
+                getLog().info("RAR is up to date: " + rarFile.getName());
+                reportMetrics(metrics, rarFile, true);
+                attachRar(rarFile);
+                return rarFile;
+            }
+            try {
+                RarInputs.deleteFingerprint(rarFile);
+            } catch (IOException e) {
+                throw new MojoExecutionException("Error deleting RAR fingerprint", e);
+            }
+        }
+
+        RarBuildCache cache = null;
+        String cacheKey = null;
+        if (buildCache) {
+            cacheKey = computeInputsFingerprint(inputs, true);
+            project.getProperties().setProperty(BUILD_CACHE_KEY_PROPERTY, cacheKey);
+            cache = new RarBuildCache(buildCacheDirectory, buildCacheMaxAge, getLog());
+            boolean restored;
+            try {
+                restored = cache.restore(cacheKey, rarFile);
+            } catch (IOException e) {
+                throw new MojoExecutionException("Error restoring the RAR from the build cache", e);
+            }
+            if (restored) {
+                getLog().info("Restored " + rarFile.getName() + " from the build cache, key " + cacheKey);
+                writeFingerprint(rarFile, fingerprint);
+                reportMetrics(metrics, rarFile, true);
+                attachRar(rarFile);
+                return rarFile;
+            }
+            getLog().info("Build cache key of " + rarFile.getName() + ": " + cacheKey);
+        }
+
+        RarArchiveBackend backend = getArchiveBackend(sources);
+        // the entries of a variant are mostly deflated already
+        if (pipelined && backend.isCopyingRawEntries() && sources.isEmpty()) {
+            pipeline = newArchiveWriter().startPipeline(new File(rarFile.getPath() + ".pipeline"));
+        }
+
+        RarMetrics.Phase archivePhase;
+        Map<String, File> archiveFiles;
         try {
-            if (includeJar) {
-                File generatedJarFile = new File(outputDirectory, finalName + ".jar");
-                if (generatedJarFile.exists()) {
-                    getLog().info("Including generated jar file[" + generatedJarFile.getName() + "]");
-                    FileUtils.copyFileToDirectory(generatedJarFile, getBuildDir());
+            stageContent(metrics);
+
+            MavenArchiver archiver = new MavenArchiver();
+            archiver.setArchiver(jarArchiver);
+            archiver.setCreatedBy("Maven RAR Plugin", "org.apache.maven.plugins", "maven-rar-plugin");
+            archiver.setOutputFile(rarFile);
+
+            // configure for Reproducible Builds based on outputTimestamp value
+            archiver.configureReproducibleBuild(outputTimestamp);
+
+            archivePhase = metrics.start(RarMetrics.ARCHIVE);
+            archiveFiles = getArchiveFiles();
+            try {
+                RarArchiveRequest request = new RarArchiveRequest(archiver, session, project, archive, rarFile);
+                request.setContent(getBuildDir(), archiveEntries, archiveFiles);
+                // an explicit recompressAddedZips of the archive configuration wins over the store policy
+                request.setStoreCompressedEntries(
+                        storeCompressedEntries && !isArchiveOptionConfigured("recompressAddedZips"));
+                if (backend.isCopyingRawEntries()) {
+                    prepareRawCopy(request, sources);
+                }
+                backend.createArchive(request);
+                if (backend.isCopyingRawEntries()) {
+                    logReusedEntries(request, sources);
                 }
+            } catch (IOException | ManifestException | DependencyResolutionRequiredException e) {
+                throw new MojoExecutionException("Error assembling RAR", e);
+            }
+        } finally {
+            closePipeline();
+            deleteShrunkJars();
+        }
+
+        int archivedFiles = 0;
+        long archivedBytes = 0;
+        for (Map.Entry<String, File> file : archiveFiles.entrySet()) {
+            if (!file.getKey().endsWith("/")) {
+                archivedFiles++;
+                archivedBytes += file.getValue().length();
+            }
+        }
+        archivePhase.end(archivedFiles, archivedBytes, rarFile.length());
+
+        writeFingerprint(rarFile, fingerprint);
+        if (cache != null) {
+            cache.store(cacheKey, rarFile);
+        }
+
+        reportMetrics(metrics, rarFile, false);
+        attachRar(rarFile);
+        return rarFile;
+    }
+
+    /**
+     * Places the content of the RAR in the work directory or, in {@link #directArchive} mode, records the files added
+     * to the RAR from their source location.
+     */
+    private void stageContent(RarMetrics metrics) throws MojoExecutionException {
+        // Check if jar file is there and if requested, copy it along with the dependencies
+        Map<String, File> jar = new LinkedHashMap<>();
+        if (packaging.isIncludeJar()) {
+            File generatedJarFile = new File(outputDirectory, finalName + ".jar");
+            if (generatedJarFile.exists()) {
+                getLog().info("Including generated jar file[" + generatedJarFile.getName() + "]");
+                jar.put(generatedJarFile.getName(), generatedJarFile);
             }
+        }
+
+        Map<String, File> dependencies = new LinkedHashMap<>();
+        for (Artifact artifact : getRarDependencies()) {
+            String action = flatten ? "Merging" : isDirectArchive() ? "Adding" : "Copying";
+            getLog().info(action + " artifact[" + artifact.getGroupId() + ", " + artifact.getId() + ", "
+                    + artifact.getScope() + "]");
+            dependencies.put(artifact.getFile().getName(), artifact.getFile());
+            if (!flatten) {
+                dependencyCoordinates.put(artifact.getFile().getName(), artifact.getId());
+            }
+        }
+        String duplicates = getOption("duplicateEntries", duplicateEntries, "ignore", "warn", "fail");
+        if (excludeRedundantJars || !duplicates.equals("ignore")) {
+            checkDuplicates(jar, dependencies, duplicates, metrics.start("duplicates"));
+        }
+
+        if (flatten) {
+            flattenLibraries(jar, dependencies, metrics.start("dependencies"));
+        } else {
+            includeLibraries(jar, metrics.start("jar"));
+            includeLibraries(dependencies, metrics.start("dependencies"));
+        }
+
+        stageResources(metrics.start("resources"));
+
+        includeDescriptorsAndIndexes(metrics);
+
+        // Check if connector deployment descriptor is there
+        File ddFile = new File(getBuildDir(), RA_XML_URI);
+        if (!ddFile.exists() && !archiveEntries.containsKey(RA_XML_URI) && warnOnMissingRaXml) {
+            getLog().warn("Connector deployment descriptor: " + ddFile.getAbsolutePath() + " does not exist.");
+        }
+    }
+
+    /**
+     * Includes the <code>ra.xml</code> and manifest files, deletes the stale files from the work directory and writes
+     * the indexes of the jars, which must only cover the jars of this build.
+     */
+    private void includeDescriptorsAndIndexes(RarMetrics metrics) throws MojoExecutionException {
+        RarMetrics.Phase descriptorsPhase = metrics.start("descriptors");
+        FileStager descriptorStager = new FileStager(1, StagingStrategy.COPY, getLog());
+        int descriptors = 0;
+
+        // Include custom manifest if necessary
+        try {
+            descriptors += includeCustomRaXmlFile(descriptorStager);
         } catch (IOException e) {
-            throw new MojoExecutionException("Error copying generated Jar file", e);
+            throw new MojoExecutionException("Error copying ra.xml file", e);
         }
 
-        // Copy dependencies
         try {
-            Set<Artifact> artifacts = project.getArtifacts();
-            for (Artifact artifact : artifacts) {
-
-                ScopeArtifactFilter filter = new ScopeArtifactFilter(Artifact.SCOPE_RUNTIME);
-                if (!artifact.isOptional()
-                        && filter.include(artifact)
-                        && artifact.getArtifactHandler().isAddedToClasspath()) {
-                    getLog().info("Copying artifact[" + artifact.getGroupId() + ", " + artifact.getId() + ", "
-                            + artifact.getScope() + "]");
-                    FileUtils.copyFileToDirectory(artifact.getFile(), getBuildDir());
-                }
+            descriptors += includeCustomManifestFile(descriptorStager);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error copying manifest file", e);
+        }
+
+        // the indexes are written once the stale libraries are gone
+        if (annotationIndex) {
+            stagedFiles.add(ANNOTATION_INDEX_URI);
+        }
+        if (packageIndex) {
+            stagedFiles.add(PackageIndex.INDEX_URI);
+        }
+        // the metadata of an exploded RAR is only rewritten when it changed
+        if (isExploded()) {
+            stagedFiles.addAll(getMetadataPaths());
+        }
+        try {
+            deleteStaleFiles();
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error deleting stale files from the work directory", e);
+        }
+        descriptorsPhase.end(descriptors, descriptorStager.getCopiedBytes(), descriptorStager.getCopiedBytes());
+
+        if (shrink) {
+            shrinkLibraries(metrics.start("shrink"));
+        }
+        if (annotationIndex) {
+            writeAnnotationIndex(metrics.start("annotations"));
+        }
+        if (packageIndex) {
+            writePackageIndex(metrics.start("packages"));
+        }
+    }
+
+    /**
+     * Copies libraries to the build directory or, in {@link #directArchive} mode, records them so that they are added
+     * to the RAR from their source location.
+     */
+    private void includeLibraries(Map<String, File> libraries, RarMetrics.Phase phase) throws MojoExecutionException {
+        if (isDirectArchive()) {
+            archiveEntries.putAll(libraries);
+            for (Map.Entry<String, File> library : libraries.entrySet()) {
+                addToPipeline(library.getKey(), library.getValue());
             }
+            phase.end(libraries.size(), 0, 0);
+            return;
+        }
+        FileStager stager = new FileStager(copyThreads, getStagingStrategy(), getLog());
+        try {
+            stager.stage(libraries, getBuildDir(), this::addToPipeline);
+            stagedFiles.addAll(libraries.keySet());
         } catch (IOException e) {
             throw new MojoExecutionException("Error copying RAR dependencies", e);
         }
+        phase.end(libraries.size(), stager.getCopiedBytes(), stager.getCopiedBytes());
+    }
 
-        resourceHandling();
+    /**
+     * Reports the entries found in more than one of the jars and, with {@link #excludeRedundantJars}, removes the
+     * redundant dependencies.
+     *
+     * @param jar the generated jar file, if included
+     * @param dependencies the dependencies, redundant ones are removed
+     * @param mode <code>ignore</code>, <code>warn</code> or <code>fail</code>
+     */
+    private void checkDuplicates(
+            Map<String, File> jar, Map<String, File> dependencies, String mode, RarMetrics.Phase phase)
+            throws MojoExecutionException {
+        Map<String, File> jars = new LinkedHashMap<>(jar);
+        jars.putAll(dependencies);
+        DuplicateFinder finder;
+        try {
+            finder = DuplicateFinder.find(
+                    jars, duplicateExcludes, Runtime.getRuntime().availableProcessors(), getLog());
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error checking the RAR dependencies for duplicates", e);
+        }
 
-        // Include custom manifest if necessary
+        if (!mode.equals("ignore")) {
+            for (String line : finder.getReport(5)) {
+                getLog().warn(line);
+            }
+            if (mode.equals("fail") && finder.hasConflicts()) {
+                throw new MojoExecutionException(
+                        "Classes or resources with different content are found in more than one jar");
+            }
+        }
+        if (excludeRedundantJars) {
+            for (String redundantJar : finder.getRedundantJars()) {
+                // the generated jar file is always included
+                if (dependencies.remove(redundantJar) != null) {
+                    getLog().info("Excluding " + redundantJar + ", all its classes and resources are in other jars");
+                }
+            }
+        }
+        phase.end(jars.size(), 0, 0);
+    }
+
+    /**
+     * @param name the name of the parameter
+     * @param value the value of the parameter
+     * @param values the allowed values, the first one is the default
+     * @return the value in lower case
+     * @throws MojoExecutionException if the value is not allowed
+     */
+    private static String getOption(String name, String value, String... values) throws MojoExecutionException {
+        String option = value == null ? values[0] : value.trim().toLowerCase(Locale.ROOT);
+        if (!Arrays.asList(values).contains(option)) {
+            throw new MojoExecutionException(
+                    "Unknown " + name + " '" + value + "', expected " + String.join(", ", values));
+        }
+        return option;
+    }
+
+    /**
+     * Merges the generated jar file and the dependencies into a single jar in the build directory, see
+     * {@link #flatten}.
+     */
+    private void flattenLibraries(Map<String, File> jar, Map<String, File> dependencies, RarMetrics.Phase phase)
+            throws MojoExecutionException {
+        String duplicates = getOption("flattenDuplicates", flattenDuplicates, "warn", "ignore", "fail");
+        Map<String, File> jars = new LinkedHashMap<>(jar);
+        jars.putAll(dependencies);
+        String name = flattenedJarName != null ? flattenedJarName : finalName + ".jar";
+        File target = new File(getBuildDir(), name);
+
+        JarMerger merger = new JarMerger(MavenArchiver.parseBuildOutputTimestamp(outputTimestamp)
+                .map(FileTime::from)
+                .orElse(null));
         try {
-            includeCustomRaXmlFile();
+            Files.createDirectories(target.getAbsoluteFile().getParentFile().toPath());
+            merger.merge(jars, target);
         } catch (IOException e) {
-            throw new MojoExecutionException("Error copying ra.xml file", e);
+            throw new MojoExecutionException("Error merging the RAR dependencies into " + name, e);
         }
+        stagedFiles.add(name.replace(File.separatorChar, '/'));
 
-        // Check if connector deployment descriptor is there
-        File ddFile = new File(getBuildDir(), RA_XML_URI);
-        if (!ddFile.exists() && warnOnMissingRaXml) {
-            getLog().warn("Connector deployment descriptor: " + ddFile.getAbsolutePath() + " does not exist.");
+        if (!merger.getConflicts().isEmpty()) {
+            if (duplicates.equals("fail")) {
+                throw new MojoExecutionException("Entries with different content found in more than one jar: "
+                        + String.join(", ", merger.getConflicts()));
+            }
+            if (duplicates.equals("warn")) {
+                for (String conflict : merger.getConflicts()) {
+                    getLog().warn("Entry with different content found in more than one jar, keeping the first: "
+                            + conflict);
+                }
+            }
         }
+        getLog().info("Merged " + jars.size() + " jars into " + name + ", left out " + merger.getDuplicates()
+                + " duplicate entries");
 
-        File rarFile = getRarFile(outputDirectory, finalName, classifier);
-        MavenArchiver archiver = new MavenArchiver();
-        archiver.setArchiver(jarArchiver);
-        archiver.setCreatedBy("Maven RAR Plugin", "org.apache.maven.plugins", "maven-rar-plugin");
-        archiver.setOutputFile(rarFile);
+        long bytesRead = 0;
+        for (File file : jars.values()) {
+            bytesRead += file.length();
+        }
+        phase.end(jars.size(), bytesRead, target.length());
+    }
 
-        // configure for Reproducible Builds based on outputTimestamp value
-        archiver.configureReproducibleBuild(outputTimestamp);
+    /**
+     * Removes the classes not reachable from the connector classes from all jars of the RAR, see {@link #shrink}.
+     * Staged jars are replaced by the shrunk jars, jars added from their source location in {@link #directArchive}
+     * mode are shrunk to <code>${workDirectory}.shrunk</code>, which is deleted once the RAR is written.
+     */
+    private void shrinkLibraries(RarMetrics.Phase phase) throws MojoExecutionException {
+        Map<String, File> jars = getArchivedJars();
+        try {
+            Set<String> roots = Collections.emptySet();
+            File raXml = archiveEntries.containsKey(RA_XML_URI)
+                    ? archiveEntries.get(RA_XML_URI)
+                    : new File(getBuildDir(), RA_XML_URI);
+            if (raXml.isFile()) {
+                try (InputStream in = Files.newInputStream(raXml.toPath())) {
+                    roots = JarShrinker.readConnectorClasses(in);
+                }
+            } else if (shrinkRoots == null || shrinkRoots.isEmpty()) {
+                getLog().warn("Shrinking without ra.xml and shrinkRoots, only annotated connector classes and"
+                        + " service providers are kept");
+            }
 
+            JarShrinker shrinker = JarShrinker.analyze(jars, Runtime.getRuntime().availableProcessors(), getLog());
+            int reachable = shrinker.computeReachable(roots, shrinkRoots);
+            int removed = 0;
+            long bytesRead = 0;
+            long bytesWritten = 0;
+            File shrunkDir = getShrunkDir();
+            for (String path : shrinker.getShrinkableJars()) {
+                File jar = jars.get(path);
+                bytesRead += jar.length();
+                if (archiveEntries.containsKey(path)) {
+                    File target = new File(shrunkDir, path);
+                    Files.createDirectories(target.getParentFile().toPath());
+                    removed += shrinker.shrink(path, target);
+                    archiveEntries.put(path, target);
+                    bytesWritten += target.length();
+                } else {
+                    // replaced rather than written through, the staged jar may be a link to the local repository
+                    File target = new File(jar.getPath() + ".shrunk");
+                    removed += shrinker.shrink(path, target);
+                    bytesWritten += target.length();
+                    Files.move(target.toPath(), jar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            getLog().info("Shrinking removed " + removed + " of " + shrinker.getClassCount() + " classes, "
+                    + reachable + " are reachable");
+            Set<String> reflective = shrinker.getReflectiveClasses();
+            if (removed > 0 && !reflective.isEmpty()) {
+                getLog().warn(reflective.size() + " kept classes use reflection, classes they load by names built at"
+                        + " runtime are removed unless matched by shrinkRoots, run with -X to list them");
+                getLog().debug("Classes using reflection: " + String.join(", ", reflective));
+            }
+            phase.end(jars.size(), bytesRead, bytesWritten);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error shrinking the jars of the RAR", e);
+        }
+    }
+
+    /**
+     * Writes the {@link #annotationIndex} of all jars of the RAR to the work directory.
+     */
+    private void writeAnnotationIndex(RarMetrics.Phase phase) throws MojoExecutionException {
+        Map<String, File> jars = getArchivedJars();
+        File indexFile = new File(getBuildDir(), ANNOTATION_INDEX_URI);
         try {
-            // Include custom manifest if necessary
-            includeCustomManifestFile();
+            AnnotationIndex index = new AnnotationIndex(new File(getBuildDir().getPath() + ".annotations"), getLog());
+            List<String> lines = index.index(jars, Runtime.getRuntime().availableProcessors());
+            Files.createDirectories(indexFile.getParentFile().toPath());
+            Files.write(indexFile.toPath(), lines, StandardCharsets.UTF_8);
+            getLog().info("Indexed " + lines.size() + " annotations in " + jars.size() + " jars");
+            phase.end(jars.size(), index.getScannedBytes(), indexFile.length());
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error writing the annotation index", e);
+        }
+    }
 
-            archiver.getArchiver().addDirectory(getBuildDir());
-            archiver.createArchive(session, project, archive);
-        } catch (IOException | ManifestException | DependencyResolutionRequiredException e) {
-            throw new MojoExecutionException("Error assembling RAR", e);
+    /**
+     * Writes the {@link #packageIndex} of all jars of the RAR to the work directory and reports split packages.
+     */
+    private void writePackageIndex(RarMetrics.Phase phase) throws MojoExecutionException {
+        Map<String, File> jars = getArchivedJars();
+        File indexFile = new File(getBuildDir(), PackageIndex.INDEX_URI);
+        try {
+            PackageIndex index = PackageIndex.create(jars, Runtime.getRuntime().availableProcessors(), getLog());
+            index.write(indexFile);
+            for (Map.Entry<String, Set<String>> splitPackage : index.getSplitPackages().entrySet()) {
+                getLog().warn("Package " + splitPackage.getKey() + " is split across "
+                        + String.join(", ", splitPackage.getValue()));
+            }
+            phase.end(index.getJarCount(), 0, indexFile.length());
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error writing the package index", e);
+        }
+    }
+
+    /**
+     * @return the jars added to the RAR keyed by their path inside the RAR, sorted by path
+     */
+    private Map<String, File> getArchivedJars() {
+        Map<String, File> jars = new TreeMap<>();
+        for (Map.Entry<String, File> file : getArchiveFiles().entrySet()) {
+            if (file.getKey().endsWith(".jar") && file.getValue().isFile()) {
+                jars.put(file.getKey(), file.getValue());
+            }
+        }
+        return jars;
+    }
+
+    private void reportMetrics(RarMetrics metrics, File rarFile, boolean upToDate) throws MojoExecutionException {
+        // the metrics file describes the main RAR
+        if (writeMetrics && metricsFile != null && !packaging.isVariant()) {
+            try {
+                metrics.write(metricsFile, rarFile, upToDate);
+            } catch (IOException e) {
+                throw new MojoExecutionException("Error writing RAR metrics", e);
+            }
+        }
+        if (printMetrics && !upToDate) {
+            getLog().info(metrics.getSummary());
+        }
+    }
+
+    /**
+     * @return the files and directories added to the RAR besides the metadata created by the Maven archiver, keyed by
+     *         their path inside the RAR; directories have a path ending with <code>/</code>
+     */
+    private Map<String, File> getArchiveFiles() {
+        Map<String, File> files = new TreeMap<>();
+        File buildDirectory = getBuildDir();
+        if (buildDirectory.isDirectory()) {
+            DirectoryScanner scanner = new DirectoryScanner();
+            scanner.setBasedir(buildDirectory);
+            scanner.addDefaultExcludes();
+            scanner.scan();
+            for (String path : scanner.getIncludedDirectories()) {
+                if (!path.isEmpty()) {
+                    files.put(path.replace(File.separatorChar, '/') + '/', new File(buildDirectory, path));
+                }
+            }
+            for (String path : scanner.getIncludedFiles()) {
+                files.put(path.replace(File.separatorChar, '/'), new File(buildDirectory, path));
+            }
+        }
+        // the archiver merges the custom manifest, entries added from their source location win over staged files
+        files.remove("META-INF/MANIFEST.MF");
+        files.putAll(archiveEntries);
+        return files;
+    }
+
+    /**
+     * @param sources the RAR files built before by this execution
+     * @return the configured {@link #archiveBackend} or, if none is configured, the direct backend when an option needs
+     *         it and the plexus backend otherwise
+     */
+    private RarArchiveBackend getArchiveBackend(List<File> sources) throws MojoExecutionException {
+        boolean copyRawEntries =
+                parallelCompression || incrementalArchive || pipelined || shareDependencies || !sources.isEmpty();
+        RarArchiveBackend backend;
+        if (archiveBackend == null || archiveBackend.trim().isEmpty()) {
+            backend = copyRawEntries ? RarArchiveBackend.DIRECT : RarArchiveBackend.PLEXUS;
+        } else {
+            try {
+                backend = RarArchiveBackend.of(archiveBackend);
+            } catch (IllegalArgumentException e) {
+                throw new MojoExecutionException(e.getMessage(), e);
+            }
+            if (copyRawEntries && !backend.isCopyingRawEntries()) {
+                getLog().warn("parallelCompression, incrementalArchive, pipelined, shareDependencies and variants"
+                        + " have no effect with the " + backend.getName() + " archive backend");
+            }
+        }
+        boolean storePatterns = storeIncludes != null || storeExcludes != null;
+        if (storePatterns && storeCompressedEntries && !backend.isCopyingRawEntries()) {
+            getLog().warn("storeIncludes and storeExcludes have no effect with the " + backend.getName()
+                    + " archive backend, which recognizes nested archives by their content");
+        }
+        return backend;
+    }
+
+    /**
+     * Sets the writer of the RAR and the archives whose unchanged entries are copied as they are: the dependencies
+     * deflated by the {@link RarDependencyCache}, the archive of the {@link #pipelined} mode, the RARs built before by
+     * this execution and, with {@link #incrementalArchive}, the previous RAR.
+     */
+    private void prepareRawCopy(RarArchiveRequest request, List<File> sources) throws IOException {
+        RarArchiveWriter writer = newArchiveWriter();
+        List<File> previous = new ArrayList<>();
+        if (shareDependencies) {
+            previous.addAll(getSharedDependencies(request.getFiles(), writer));
+        }
+        if (pipeline != null) {
+            File deflated = pipeline.finish();
+            if (deflated != null) {
+                previous.add(deflated);
+            }
+        }
+        previous.addAll(sources);
+        File rarFile = request.getRarFile();
+        if (incrementalArchive && rarFile.isFile()) {
+            previous.add(rarFile);
+        }
+        request.setWriter(writer, previous);
+    }
+
+    private void logReusedEntries(RarArchiveRequest request, List<File> sources) {
+        int reusedEntries = request.getWriter().getReusedEntries();
+        String rarName = request.getRarFile().getName();
+        if (!sources.isEmpty()) {
+            getLog().info("Reused " + reusedEntries + " entries of the previously built RARs in " + rarName);
+        } else if (pipeline != null) {
+            getLog().info("Reused " + reusedEntries + " entries of " + pipeline.getAddedFiles()
+                    + " deflated while preparing the RAR");
+        } else if (incrementalArchive && !request.getReusableArchives().isEmpty()) {
+            getLog().info("Reused " + reusedEntries + " unchanged entries of " + rarName);
+        }
+    }
+
+    /**
+     * Looks up the dependency jars of the RAR in the {@link RarDependencyCache}, deflating those no other module
+     * deflated yet. Stored jars are left out, they are copied as they are anyway.
+     *
+     * @return the archives holding the deflated jars
+     */
+    private List<File> getSharedDependencies(Map<String, File> files, RarArchiveWriter writer) throws IOException {
+        File cacheDirectory = dependencyCacheDirectory != null
+                ? dependencyCacheDirectory
+                : new File(outputDirectory, "rar-dependency-cache");
+        List<Callable<File>> tasks = new ArrayList<>();
+        for (Map.Entry<String, String> dependency : dependencyCoordinates.entrySet()) {
+            String path = dependency.getKey();
+            File jar = files.get(path);
+            if (jar != null && jar.isFile() && writer.isDeflated(path)) {
+                tasks.add(() -> dependencyCache.getDeflated(dependency.getValue(), path, jar, writer, cacheDirectory));
+            }
+        }
+        if (tasks.isEmpty() && !dependencyCoordinates.isEmpty()) {
+            getLog().warn("shareDependencies has no effect, the dependency jars are stored rather than deflated, see"
+                    + " storeCompressedEntries");
+            return Collections.emptyList();
+        }
+        List<File> archives = ParallelTasks.invokeAll(tasks, getCompressionThreads());
+        if (!archives.isEmpty()) {
+            getLog().info("Using " + archives.size() + " dependencies deflated by the RAR dependency cache");
+        }
+        dependencyCache.evict(cacheDirectory, dependencyCacheMaxAge, getLog());
+        return archives;
+    }
+
+    private int getCompressionThreads() {
+        return compressionThreads > 0 ? compressionThreads : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * @param name the name of an option of the {@link #archive} configuration
+     * @return <code>true</code> if the option is configured for this execution rather than left to its default
+     */
+    private boolean isArchiveOptionConfigured(String name) {
+        Xpp3Dom configuration = mojoExecution != null ? mojoExecution.getConfiguration() : null;
+        Xpp3Dom archiveConfiguration = configuration != null ? configuration.getChild("archive") : null;
+        return archiveConfiguration != null && archiveConfiguration.getChild(name) != null;
+    }
+
+    private RarArchiveWriter newArchiveWriter() {
+        return new RarArchiveWriter(
+                getCompressionThreads(),
+                parallelCompressionThreshold,
+                archive.isCompress(),
+                storeCompressedEntries
+                        ? new CompressionPolicy(storeIncludes, storeExcludes)
+                        : CompressionPolicy.DEFLATE_ALL,
+                jarArchiver.getLastModifiedTime());
+    }
+
+    /**
+     * Hands a file of the RAR to the compression stage of the {@link #pipelined} mode, if enabled.
+     *
+     * @param path the path of the file in the RAR
+     * @param file the file, which is not written to anymore
+     */
+    private void addToPipeline(String path, File file) {
+        if (pipeline != null) {
+            pipeline.add(path, file);
+        }
+    }
+
+    private void closePipeline() throws MojoExecutionException {
+        if (pipeline != null) {
+            try {
+                pipeline.close();
+            } catch (IOException e) {
+                throw new MojoExecutionException("Error deleting the pipelined compression archive", e);
+            } finally {
+                pipeline = null;
+            }
+        }
+    }
+
+    private File getShrunkDir() {
+        return new File(getBuildDir().getPath() + ".shrunk");
+    }
+
+    private void deleteShrunkJars() throws MojoExecutionException {
+        try {
+            FileUtils.deleteDirectory(getShrunkDir());
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error deleting the shrunk jars", e);
         }
+    }
 
-        if (classifier != null) {
-            projectHelper.attachArtifact(project, "rar", classifier, rarFile);
+    private void attachRar(File rarFile) {
+        if (packaging.getClassifier() != null) {
+            projectHelper.attachArtifact(project, "rar", packaging.getClassifier(), rarFile);
         } else {
             project.getArtifact().setFile(rarFile);
         }
     }
 
-    private void resourceHandling() throws MojoExecutionException {
+    private StagingStrategy getStagingStrategy() throws MojoExecutionException {
+        try {
+            return StagingStrategy.of(stagingStrategy);
+        } catch (IllegalArgumentException e) {
+            throw new MojoExecutionException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return the dependencies to include in the RAR
+     */
+    private List<Artifact> getRarDependencies() {
+        List<Artifact> dependencies = new ArrayList<>();
+        ScopeArtifactFilter filter = new ScopeArtifactFilter(Artifact.SCOPE_RUNTIME);
+        for (Artifact artifact : project.getArtifacts()) {
+            if (!artifact.isOptional()
+                    && filter.include(artifact)
+                    && artifact.getArtifactHandler().isAddedToClasspath()) {
+                dependencies.add(artifact);
+            }
+        }
+        return dependencies;
+    }
+
+    /**
+     * @return everything that contributes to the content of the RAR
+     */
+    private RarInputs getInputs() {
+        RarInputs inputs = new RarInputs(session, project, archive, newResourceStager())
+                .add("pluginVersion", pluginVersion)
+                .add("project", project.getId())
+                .add("classifier", packaging.getClassifier())
+                .add("variant", packaging.isVariant())
+                .add("finalName", finalName)
+                .add("directArchive", directArchive)
+                .add("parallelCompression", parallelCompression)
+                .add("archiveBackend", archiveBackend)
+                .add("incrementalArchive", incrementalArchive)
+                .add("pipelined", pipelined)
+                .add("shareDependencies", shareDependencies)
+                .add("storeCompressedEntries", storeCompressedEntries)
+                .add("storeIncludes", storeIncludes)
+                .add("storeExcludes", storeExcludes)
+                .add("duplicateEntries", duplicateEntries)
+                .add("excludeRedundantJars", excludeRedundantJars)
+                .add("duplicateExcludes", duplicateExcludes)
+                .add("flatten", flatten)
+                .add("flattenDuplicates", flattenDuplicates)
+                .add("flattenedJarName", flattenedJarName)
+                .add("annotationIndex", annotationIndex)
+                .add("packageIndex", packageIndex)
+                .add("shrink", shrink)
+                .add("shrinkRoots", shrinkRoots)
+                .add("outputTimestamp", outputTimestamp)
+                .add("includeJar", packaging.isIncludeJar())
+                .addFile("pom", project.getFile())
+                .addFile("raXmlFile", raXmlFile)
+                .addFile("manifestFile", manifestFile);
+        if (packaging.isIncludeJar()) {
+            inputs.addFile("jar", new File(outputDirectory, finalName + ".jar"));
+        }
+        Map<String, File> dependencies = new TreeMap<>();
+        for (Artifact artifact : getRarDependencies()) {
+            dependencies.put(artifact.getId(), artifact.getFile());
+        }
+        for (Map.Entry<String, File> dependency : dependencies.entrySet()) {
+            inputs.addFile("dependency." + dependency.getKey(), dependency.getValue());
+        }
+        return inputs;
+    }
+
+    /**
+     * @param inputs the inputs of the RAR
+     * @param content <code>true</code> to fingerprint the content of the files rather than their path, size and last
+     *            modification time, see {@link #buildCache}
+     * @return the hex encoded fingerprint
+     */
+    private static String computeInputsFingerprint(RarInputs inputs, boolean content) throws MojoExecutionException {
+        try {
+            return inputs.computeFingerprint(content);
+        } catch (IOException | ManifestException | DependencyResolutionRequiredException e) {
+            throw new MojoExecutionException("Error computing the fingerprint of the RAR inputs", e);
+        }
+    }
+
+    private static void writeFingerprint(File rarFile, String fingerprint) throws MojoExecutionException {
+        if (fingerprint != null) {
+            try {
+                RarInputs.writeFingerprint(rarFile, fingerprint);
+            } catch (IOException e) {
+                throw new MojoExecutionException("Error writing RAR fingerprint", e);
+            }
+        }
+    }
+
+    /**
+     * @return the stager of the resources of the RAR being built: the RAR source directory and the RAR resources
+     */
+    private ResourceStager newResourceStager() {
         Resource resource = new Resource();
         resource.setDirectory(rarSourceDirectory.getAbsolutePath());
         resource.setTargetPath(getBuildDir().getAbsolutePath());
@@ -402,8 +1570,9 @@ public class RarMojo extends AbstractMojo {
         List<Resource> resources = new ArrayList<>();
         resources.add(resource);
 
-        if (rarResources != null && !rarResources.isEmpty()) {
-            resources.addAll(rarResources);
+        List<RarResource> packagingResources = getPackaging().getRarResources();
+        if (packagingResources != null && !packagingResources.isEmpty()) {
+            resources.addAll(packagingResources);
         }
 
         MavenResourcesExecution mavenResourcesExecution = new MavenResourcesExecution(
@@ -424,21 +1593,207 @@ public class RarMojo extends AbstractMojo {
         if (nonFilteredFileExtensions != null) {
             mavenResourcesExecution.setNonFilteredFileExtensions(nonFilteredFileExtensions);
         }
+        return new ResourceStager(mavenResourcesFiltering, mavenResourcesExecution, incrementalFiltering);
+    }
+
+    private void stageResources(RarMetrics.Phase phase) throws MojoExecutionException {
+        ResourceStager stager = newResourceStager();
+        Set<String> targets;
         try {
-            mavenResourcesFiltering.filterResources(mavenResourcesExecution);
+            targets = stager.stage();
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error using the filtering cache", e);
         } catch (MavenFilteringException e) {
             throw new MojoExecutionException("Error copying RAR resources", e);
         }
+
+        stagedFiles.addAll(targets);
+        stagedResources.clear();
+        stagedResources.addAll(targets);
+        for (String target : targets) {
+            File file = new File(getBuildDir(), target);
+            if (file.isFile()) {
+                addToPipeline(target, file);
+            }
+        }
+        phase.end(targets.size(), stager.getBytesRead(), stager.getBytesWritten());
+    }
+
+    /**
+     * Copies the resources of the exploded RAR again and deletes the copies of the removed resources, leaving the
+     * libraries, descriptors and metadata placed in the work directory by the last build alone.
+     *
+     * @throws MojoExecutionException if the resources could not be copied
+     */
+    void restageResources() throws MojoExecutionException {
+        stagedFiles.removeAll(stagedResources);
+        stageResources(new RarMetrics().start("resources"));
+        try {
+            deleteStaleFiles();
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error deleting stale files from the work directory", e);
+        }
+    }
+
+    /**
+     * Deletes the files an earlier build placed in the work directory which are no longer part of the RAR, like the
+     * library of a removed dependency, and records the files of this build for the next one. Files that were not put
+     * there by this plugin are left alone.
+     *
+     * @throws IOException if a file could not be deleted or the record could not be written
+     */
+    private void deleteStaleFiles() throws IOException {
+        File record = new File(getBuildDir().getPath() + ".staged");
+        if (record.isFile()) {
+            for (String path : Files.readAllLines(record.toPath(), StandardCharsets.UTF_8)) {
+                if (path.isEmpty() || stagedFiles.contains(path)) {
+                    continue;
+                }
+                File stale = new File(getBuildDir(), path);
+                if (stale.isFile()) {
+                    getLog().debug("Deleting stale file " + stale);
+                    Files.delete(stale.toPath());
+                    deleteEmptyParents(stale.getParentFile());
+                }
+            }
+        }
+        recordStagedFiles();
+    }
+
+    /**
+     * Records the files of this build for the next one, see {@link #deleteStaleFiles()}.
+     *
+     * @throws IOException if the record could not be written
+     */
+    private void recordStagedFiles() throws IOException {
+        File record = new File(getBuildDir().getPath() + ".staged");
+        if (stagedFiles.isEmpty()) {
+            Files.deleteIfExists(record.toPath());
+        } else {
+            Files.write(record.toPath(), stagedFiles, StandardCharsets.UTF_8);
+        }
+    }
+
+    private void deleteEmptyParents(File directory) {
+        File buildDirectory = getBuildDir().getAbsoluteFile();
+        File current = directory.getAbsoluteFile();
+        while (!current.equals(buildDirectory) && current.delete()) {
+            current = current.getParentFile();
+        }
+    }
+
+    /**
+     * @return <code>true</code> to only place the content of the RAR in the work directory, see
+     *         {@link RarExplodedMojo}
+     */
+    protected boolean isExploded() {
+        return false;
+    }
+
+    /**
+     * @return the directories whose whole content is an input of the RAR: the RAR source directory and the
+     *         directories of the RAR resources
+     */
+    List<File> getInputDirectories() {
+        return newResourceStager().getDirectories();
+    }
+
+    /**
+     * @return the single files which are inputs of the RAR: the <code>ra.xml</code> and manifest files, the filters
+     *         and the generated jar file
+     */
+    List<File> getInputFiles() {
+        List<File> files = new ArrayList<>();
+        if (raXmlFile != null) {
+            files.add(raXmlFile);
+        }
+        if (manifestFile != null) {
+            files.add(manifestFile);
+        }
+        files.addAll(newResourceStager().getFilterFiles());
+        if (getPackaging().isIncludeJar()) {
+            files.add(new File(outputDirectory, finalName + ".jar"));
+        }
+        return files;
+    }
+
+    private boolean isDirectArchive() {
+        // an exploded RAR holds all of its files, a variant only stages its own resources
+        return (directArchive || packaging.isVariant()) && !isExploded();
+    }
+
+    /**
+     * @return the paths of the manifest and the Maven descriptor written by the Maven archiver
+     */
+    private Set<String> getMetadataPaths() {
+        Set<String> paths = new TreeSet<>();
+        paths.add("META-INF/MANIFEST.MF");
+        if (archive.isAddMavenDescriptor()) {
+            String descriptor = "META-INF/maven/" + project.getGroupId() + "/" + project.getArtifactId() + "/";
+            paths.add(descriptor + "pom.xml");
+            paths.add(descriptor + "pom.properties");
+        }
+        return paths;
+    }
+
+    /**
+     * Lets the Maven archiver write the manifest and the Maven descriptor to a temporary archive and copies them to the
+     * work directory, leaving the files whose content did not change untouched.
+     */
+    private void writeExplodedMetadata() throws MojoExecutionException {
+        MavenArchiver archiver = new MavenArchiver();
+        archiver.setArchiver(jarArchiver);
+        archiver.setCreatedBy("Maven RAR Plugin", "org.apache.maven.plugins", "maven-rar-plugin");
+        archiver.configureReproducibleBuild(outputTimestamp);
+        File metadata = new File(getBuildDir().getPath() + ".metadata");
+        archiver.setOutputFile(metadata);
+        try {
+            archiver.createArchive(session, project, archive);
+            int written = 0;
+            try (ZipFile zip = new ZipFile(metadata)) {
+                for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements(); ) {
+                    ZipEntry entry = e.nextElement();
+                    if (entry.isDirectory()) {
+                        continue;
+                    }
+                    byte[] content;
+                    try (InputStream in = zip.getInputStream(entry)) {
+                        content = IOUtil.toByteArray(in);
+                    }
+                    File target = new File(getBuildDir(), entry.getName());
+                    if (!target.isFile() || !Arrays.equals(content, Files.readAllBytes(target.toPath()))) {
+                        Files.createDirectories(target.getParentFile().toPath());
+                        Files.write(target.toPath(), content);
+                        written++;
+                    }
+                    stagedFiles.add(entry.getName());
+                }
+            }
+            recordStagedFiles();
+            getLog().debug("Wrote " + written + " changed metadata files");
+        } catch (IOException | ManifestException | DependencyResolutionRequiredException e) {
+            throw new MojoExecutionException("Error writing the metadata of the exploded RAR", e);
+        } finally {
+            metadata.delete();
+        }
     }
 
     /**
      * @return the buildDir
      */
     protected File getBuildDir() {
-        if (buildDir == null) {
-            buildDir = new File(workDirectory);
-        }
-        return buildDir;
+        return getPackaging().getBuildDir();
+    }
+
+    /**
+     * @return the settings of the RAR being built or, before the build, of the main RAR
+     */
+    private RarPackaging getPackaging() {
+        return packaging != null ? packaging : newMainPackaging();
+    }
+
+    private RarPackaging newMainPackaging() {
+        return new RarPackaging(classifier, includeJar, rarResources, new File(workDirectory));
     }
 
     /**
@@ -457,27 +1812,50 @@ public class RarMojo extends AbstractMojo {
         return new File(basedir, finalName + classifier + ".rar");
     }
 
-    private void includeCustomManifestFile() throws IOException {
+    /**
+     * Copies the given file to the build directory, unless an identical copy is already there, or, in
+     * {@link #directArchive} mode, records it so that it is added to the RAR from its source location.
+     *
+     * @param file the file to include
+     * @param path the path of the file inside the RAR
+     * @param stager copies the file; descriptors are always copied, never linked, since the resource filtering may
+     *            write to the same path on the next build
+     * @throws IOException if the file could not be copied
+     */
+    private void includeFile(File file, String path, FileStager stager) throws IOException {
+        if (isDirectArchive()) {
+            archiveEntries.put(path, file);
+        } else {
+            stager.stage(Collections.singletonMap(path, file), getBuildDir());
+            stagedFiles.add(path);
+        }
+    }
+
+    private int includeCustomManifestFile(FileStager stager) throws IOException {
         File customManifestFile = manifestFile;
         if (!customManifestFile.exists()) {
             getLog().info("Could not find manifest file: " + manifestFile + " - Generating one");
-        } else {
-            getLog().info("Including custom manifest file[" + customManifestFile + "]");
-            archive.setManifestFile(customManifestFile);
-            File metaInfDir = new File(getBuildDir(), "META-INF");
-            FileUtils.copyFileToDirectory(customManifestFile, metaInfDir);
+            return 0;
+        }
+        getLog().info("Including custom manifest file[" + customManifestFile + "]");
+        archive.setManifestFile(customManifestFile);
+        // the archiver merges the manifest file itself, the copy only keeps the work directory complete
+        if (!isDirectArchive() && !isExploded()) {
+            includeFile(customManifestFile, "META-INF/" + customManifestFile.getName(), stager);
         }
+        return 1;
     }
 
-    private void includeCustomRaXmlFile() throws IOException {
+    private int includeCustomRaXmlFile(FileStager stager) throws IOException {
         if (raXmlFile == null) {
-            return;
+            return 0;
         }
         File raXml = raXmlFile;
-        if (raXml.exists()) {
-            getLog().info("Using ra.xml " + raXmlFile);
-            File metaInfDir = new File(getBuildDir(), "META-INF");
-            FileUtils.copyFileToDirectory(raXml, metaInfDir);
+        if (!raXml.exists()) {
+            return 0;
         }
+        getLog().info("Using ra.xml " + raXmlFile);
+        includeFile(raXml, RA_XML_URI, stager);
+        return 1;
     }
 }
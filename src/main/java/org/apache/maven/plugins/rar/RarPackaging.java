@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.plugins.rar;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * The settings of one RAR built by an execution: those of the main RAR, or those of a {@link RarVariant} with the
+ * settings it does not set taken from the main RAR.
+ */
+final class RarPackaging {
+    private final String classifier;
+
+    private final boolean includeJar;
+
+    private final List<RarResource> rarResources;
+
+    private final File buildDir;
+
+    private final boolean variant;
+
+    /**
+     * @param classifier the classifier of the main RAR, may be <code>null</code>
+     * @param includeJar whether the generated jar file is included
+     * @param rarResources the RAR resources, may be <code>null</code>
+     * @param buildDir the work directory
+     */
+    RarPackaging(String classifier, boolean includeJar, List<RarResource> rarResources, File buildDir) {
+        this(classifier, includeJar, rarResources, buildDir, false);
+    }
+
+    private RarPackaging(
+            String classifier, boolean includeJar, List<RarResource> rarResources, File buildDir, boolean variant) {
+        this.classifier = classifier;
+        this.includeJar = includeJar;
+        this.rarResources = rarResources;
+        this.buildDir = buildDir;
+        this.variant = variant;
+    }
+
+    /**
+     * @param rarVariant the variant, with a classifier
+     * @return the settings of the variant, which is staged in a work directory of its own
+     */
+    RarPackaging forVariant(RarVariant rarVariant) {
+        String variantClassifier = rarVariant.getClassifier().trim();
+        return new RarPackaging(
+                variantClassifier,
+                rarVariant.getIncludeJar() != null ? rarVariant.getIncludeJar() : includeJar,
+                rarVariant.getRarResources() != null ? rarVariant.getRarResources() : rarResources,
+                new File(buildDir.getPath() + "-" + variantClassifier),
+                true);
+    }
+
+    String getClassifier() {
+        return classifier;
+    }
+
+    boolean isIncludeJar() {
+        return includeJar;
+    }
+
+    List<RarResource> getRarResources() {
+        return rarResources;
+    }
+
+    File getBuildDir() {
+        return buildDir;
+    }
+
+    /**
+     * @return <code>true</code> for a {@link RarVariant}
+     */
+    boolean isVariant() {
+        return variant;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.plugins.rar;
+
+import java.util.List;
+
+/**
+ * A classified variant of the RAR, built by the same execution as the main RAR. Settings which are not set are taken
+ * from the execution.
+ *
+ * @since 3.2.0
+ */
+public class RarVariant {
+    private String classifier;
+
+    private Boolean includeJar;
+
+    private List<RarResource> rarResources;
+
+    /**
+     * @return the classifier of the variant, required and different from the classifier of the main RAR
+     */
+    public String getClassifier() {
+        return classifier;
+    }
+
+    public void setClassifier(String classifier) {
+        this.classifier = classifier;
+    }
+
+    /**
+     * @return whether the generated jar file is included, <code>null</code> to use the setting of the execution
+     */
+    public Boolean getIncludeJar() {
+        return includeJar;
+    }
+
+    public void setIncludeJar(Boolean includeJar) {
+        this.includeJar = includeJar;
+    }
+
+    /**
+     * @return the RAR resources included instead of the ones of the execution, <code>null</code> to include the ones
+     *         of the execution
+     */
+    public List<RarResource> getRarResources() {
+        return rarResources;
+    }
+
+    public void setRarResources(List<RarResource> rarResources) {
+        this.rarResources = rarResources;
+    }
+}
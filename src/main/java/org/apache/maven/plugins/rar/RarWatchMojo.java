@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.plugins.rar;
+
+import javax.inject.Inject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.project.MavenProjectHelper;
+import org.apache.maven.shared.filtering.MavenResourcesFiltering;
+import org.codehaus.plexus.archiver.jar.JarArchiver;
+
+/**
+ * Builds the exploded RAR like the <code>exploded</code> goal, then watches the inputs of the RAR and updates the
+ * exploded RAR whenever they change, until the build is interrupted. The RAR source directory, the directories of the
+ * RAR resources, the <code>ra.xml</code> and manifest files, the filters and the generated jar file are watched, also
+ * when they only appear later. When only resources changed, only the resources are copied again; any other change
+ * runs the whole staging of the exploded goal, which still leaves the unchanged files in place. Dependencies are
+ * resolved once, when the goal starts.
+ *
+ * @since 3.2.0
+ */
+@Mojo(name = "watch", threadSafe = true, requiresDependencyResolution = ResolutionScope.TEST)
+public class RarWatchMojo extends RarExplodedMojo {
+    /**
+     * The time in milliseconds without further changes after which the exploded RAR is updated, so that a burst of
+     * changes, like saving several files at once, leads to a single update.
+     *
+     * @since 3.2.0
+     */
+    @Parameter(property = "maven.rar.watchDebounce", defaultValue = "200")
+    private long watchDebounce = 200;
+
+    @Inject
+    public RarWatchMojo(
+            JarArchiver jarArchiver,
+            MavenResourcesFiltering mavenResourcesFiltering,
+            MavenProjectHelper projectHelper,
+            RarDependencyCache dependencyCache) {
+        super(jarArchiver, mavenResourcesFiltering, projectHelper, dependencyCache);
+    }
+
+    @Override
+    public void execute() throws MojoExecutionException {
+        // the inputs are watched before the first build, so that no change made while it runs is missed
+        try (InputWatcher watcher = new InputWatcher(getInputDirectories(), getInputFiles())) {
+            super.execute();
+            if (!watcher.isWatching()) {
+                getLog().warn("None of the inputs of the RAR exist, nothing to watch");
+                return;
+            }
+            getLog().info("Watching the inputs of the RAR for changes, interrupt the build to stop");
+            while (true) {
+                Set<Path> changed = watcher.awaitChanges(watchDebounce);
+                getLog().info(changed.isEmpty() ? "Inputs changed" : changed.size() + " inputs changed");
+                for (Path path : changed) {
+                    getLog().debug("Changed: " + path);
+                }
+                try {
+                    if (isResourceChange(changed)) {
+                        restageResources();
+                    } else {
+                        super.execute();
+                    }
+                } catch (MojoExecutionException e) {
+                    // keep watching, the next change may fix the problem
+                    getLog().error(e.getMessage(), e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            getLog().info("Stopped watching the inputs of the RAR");
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error watching the inputs of the RAR", e);
+        }
+    }
+
+    /**
+     * @param changed the changed paths, empty if they are unknown
+     * @return <code>true</code> if all changed paths lie in the directories of the resources and none of them is
+     *         another input, like a <code>ra.xml</code> kept with the resources
+     */
+    private boolean isResourceChange(Set<Path> changed) {
+        if (changed.isEmpty()) {
+            return false;
+        }
+        List<File> inputFiles = getInputFiles();
+        List<File> inputDirectories = getInputDirectories();
+        for (Path path : changed) {
+            boolean resource = false;
+            for (File directory : inputDirectories) {
+                resource |= path.startsWith(directory.toPath().toAbsolutePath().normalize());
+            }
+            for (File file : inputFiles) {
+                resource &= !path.equals(file.toPath().toAbsolutePath().normalize());
+            }
+            if (!resource) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
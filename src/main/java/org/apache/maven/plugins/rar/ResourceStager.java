@@ -0,0 +1,390 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.plugins.rar;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Resource;
+import org.apache.maven.model.io.xpp3.MavenXpp3Writer;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.shared.filtering.MavenFilteringException;
+import org.apache.maven.shared.filtering.MavenResourcesExecution;
+import org.apache.maven.shared.filtering.MavenResourcesFiltering;
+import org.codehaus.plexus.interpolation.PrefixedObjectValueSource;
+import org.codehaus.plexus.interpolation.ValueSource;
+import org.codehaus.plexus.util.DirectoryScanner;
+
+/**
+ * Copies the resources of a RAR to its work directory with maven-filtering. With incremental filtering, the filtered
+ * resources are only filtered again when their source or the filtering configuration changed, see
+ * {@link FilteringCache}.
+ */
+final class ResourceStager {
+    private final MavenResourcesFiltering filtering;
+
+    private final MavenResourcesExecution execution;
+
+    private final boolean incremental;
+
+    private final File buildDir;
+
+    private final MavenProject project;
+
+    private final MavenSession session;
+
+    private long bytesRead;
+
+    private long bytesWritten;
+
+    /**
+     * @param filtering the resource filtering
+     * @param execution the resources and the filtering configuration, writing to the work directory
+     * @param incremental whether only the changed filtered resources are filtered again
+     */
+    ResourceStager(MavenResourcesFiltering filtering, MavenResourcesExecution execution, boolean incremental) {
+        this.filtering = filtering;
+        this.execution = execution;
+        this.incremental = incremental;
+        this.buildDir = execution.getOutputDirectory();
+        this.project = execution.getMavenProject();
+        this.session = execution.getMavenSession();
+    }
+
+    /**
+     * Copies the resources to the work directory.
+     *
+     * @return the paths of the copies relative to the work directory, without the resources copied elsewhere
+     * @throws IOException if the filtering cache could not be read or written
+     * @throws MavenFilteringException if a resource could not be copied
+     */
+    Set<String> stage() throws IOException, MavenFilteringException {
+        List<Resource> resources = execution.getResources();
+        bytesRead = 0;
+        bytesWritten = 0;
+
+        // the files maven-filtering wrote are those whose size or last modification time changed
+        Map<String, File> targets = new TreeMap<>();
+        for (Resource resource : resources) {
+            targets.putAll(getResourceTargets(resource));
+        }
+        Map<String, String> stamps = new HashMap<>();
+        for (String target : targets.keySet()) {
+            stamps.put(target, getStamp(new File(buildDir, target)));
+        }
+
+        FilteringCache cache = null;
+        Map<String, String> filtered = new TreeMap<>();
+        List<Resource> changedResources = resources;
+        if (incremental) {
+            cache = new FilteringCache(new File(buildDir.getPath() + ".filtered"), computeFilteringConfiguration());
+            changedResources = getChangedResources(resources, cache, filtered);
+        }
+
+        if (!changedResources.isEmpty()) {
+            execution.setResources(changedResources);
+            try {
+                filtering.filterResources(execution);
+            } finally {
+                execution.setResources(resources);
+            }
+        }
+
+        if (cache != null) {
+            for (Map.Entry<String, String> entry : filtered.entrySet()) {
+                File file = new File(buildDir, entry.getKey());
+                if (file.isFile()) {
+                    cache.update(entry.getKey(), entry.getValue(), file);
+                }
+            }
+            cache.save(filtered.keySet());
+        }
+
+        for (Map.Entry<String, File> target : targets.entrySet()) {
+            File file = new File(buildDir, target.getKey());
+            if (!getStamp(file).equals(stamps.get(target.getKey()))) {
+                bytesRead += target.getValue().length();
+                bytesWritten += file.length();
+            }
+        }
+        return targets.keySet();
+    }
+
+    /**
+     * @return the number of bytes of the resources copied by the last {@link #stage()}
+     */
+    long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * @return the number of bytes of the copies written by the last {@link #stage()}
+     */
+    long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * @return the directories of the resources
+     */
+    List<File> getDirectories() {
+        List<File> directories = new ArrayList<>();
+        for (Resource resource : execution.getResources()) {
+            directories.add(resolveFile(resource.getDirectory()));
+        }
+        return directories;
+    }
+
+    /**
+     * @return the filter files
+     */
+    List<File> getFilterFiles() {
+        List<File> files = new ArrayList<>();
+        if (execution.getFileFilters() != null) {
+            for (String filter : execution.getFileFilters()) {
+                files.add(resolveFile(filter));
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Adds the resources, the filtering configuration and the values of the expressions the filtered resources refer
+     * to. An expression is resolved from the properties and, like maven-filtering does, from the effective model of the
+     * project, the session and the settings, so that values inherited from a parent pom are covered too.
+     *
+     * @param fingerprint the fingerprint
+     * @throws IOException if a resource could not be read
+     */
+    void addTo(InputsFingerprint fingerprint) throws IOException {
+        FilterExpressions expressions =
+                new FilterExpressions(execution.getDelimiters(), false, execution.getNonFilteredFileExtensions());
+        List<Resource> resources = execution.getResources();
+        for (int i = 0; i < resources.size(); i++) {
+            Resource resource = resources.get(i);
+            File directory = resolveFile(resource.getDirectory());
+            String name = "resource." + i;
+            fingerprint
+                    .add(name + ".targetPath", getTargetPath(resource))
+                    .add(name + ".filtering", resource.isFiltering())
+                    .addDirectory(name, directory, resource.getIncludes(), resource.getExcludes());
+            if (resource.isFiltering()) {
+                expressions.scan(directory, resource.getIncludes(), resource.getExcludes());
+            }
+        }
+
+        fingerprint
+                .add("encoding", execution.getEncoding())
+                .add("escapeWindowsPaths", execution.isEscapeWindowsPaths())
+                .add("escapeString", execution.getEscapeString())
+                .add("includeEmptyDirs", execution.isIncludeEmptyDirs())
+                .add("supportMultiLineFiltering", execution.isSupportMultiLineFiltering())
+                .add("delimiters", execution.getDelimiters())
+                .add("nonFilteredFileExtensions", execution.getNonFilteredFileExtensions());
+        for (File filter : getFilterFiles()) {
+            fingerprint.addFile("filter", filter);
+        }
+        // only the values the filtered files refer to, the environment and most system properties differ from one
+        // machine to the next
+        List<ValueSource> objects = getObjectValueSources();
+        for (String name : expressions.getNames()) {
+            fingerprint.add("project.properties." + name, project.getProperties().getProperty(name));
+            if (session != null) {
+                fingerprint
+                        .add("user.properties." + name, session.getUserProperties().getProperty(name))
+                        .add("system.properties." + name, session.getSystemProperties().getProperty(name));
+            }
+            for (int i = 0; i < objects.size(); i++) {
+                fingerprint.add("objects." + i + "." + name, objects.get(i).getValue(name));
+            }
+        }
+    }
+
+    /**
+     * @return the value sources maven-filtering resolves the expressions not found in the properties from
+     */
+    private List<ValueSource> getObjectValueSources() {
+        List<ValueSource> sources = new ArrayList<>();
+        sources.add(new PrefixedObjectValueSource(Arrays.asList("project", "pom"), project, true));
+        if (session != null) {
+            sources.add(new PrefixedObjectValueSource("session", session));
+            if (session.getSettings() != null) {
+                sources.add(new PrefixedObjectValueSource("settings", session.getSettings()));
+            }
+        }
+        return sources;
+    }
+
+    /**
+     * Narrows the filtered resources down to the files that need to be filtered again. The copies of those files are
+     * deleted, so that maven-filtering does not skip them for looking newer than their source.
+     *
+     * @param resources all resources
+     * @param cache the filtering cache
+     * @param filtered receives the hash of the source of every filtered copy, keyed by the path of the copy
+     * @return the resources to hand to maven-filtering
+     * @throws IOException if a source could not be read or a copy could not be deleted
+     */
+    private List<Resource> getChangedResources(
+            List<Resource> resources, FilteringCache cache, Map<String, String> filtered) throws IOException {
+        Path buildPath = buildDir.toPath().toAbsolutePath().normalize();
+        List<Resource> changedResources = new ArrayList<>();
+        for (Resource resource : resources) {
+            if (!resource.isFiltering()
+                    || !getTargetDirectory(resource).toPath().toAbsolutePath().normalize().startsWith(buildPath)) {
+                changedResources.add(resource);
+                continue;
+            }
+            Path directory = resolveFile(resource.getDirectory()).toPath();
+            List<String> changed = new ArrayList<>();
+            boolean narrowable = true;
+            for (Map.Entry<String, File> target : getResourceTargets(resource).entrySet()) {
+                String hash = InputsFingerprint.hash(target.getValue());
+                filtered.put(target.getKey(), hash);
+                File file = new File(buildDir, target.getKey());
+                if (!cache.isUpToDate(target.getKey(), hash, file)) {
+                    String path = directory.relativize(target.getValue().toPath()).toString();
+                    // the includes are patterns, which cannot match wildcards literally
+                    narrowable &= path.indexOf('*') < 0 && path.indexOf('?') < 0 && !path.startsWith("%");
+                    changed.add(path);
+                    Files.deleteIfExists(file.toPath());
+                }
+            }
+            if (!narrowable) {
+                changedResources.add(resource);
+            } else if (!changed.isEmpty()) {
+                Resource changedResource = resource.clone();
+                changedResource.setIncludes(changed);
+                changedResources.add(changedResource);
+            }
+        }
+        return changedResources;
+    }
+
+    /**
+     * Computes the fingerprint of everything but the content of the source files that affects filtered resources.
+     */
+    private String computeFilteringConfiguration() throws IOException {
+        InputsFingerprint fingerprint = new InputsFingerprint()
+                .add("encoding", execution.getEncoding())
+                .add("escapeWindowsPaths", execution.isEscapeWindowsPaths())
+                .add("escapeString", execution.getEscapeString())
+                .add("supportMultiLineFiltering", execution.isSupportMultiLineFiltering())
+                .add("delimiters", execution.getDelimiters())
+                .add("nonFilteredFileExtensions", execution.getNonFilteredFileExtensions())
+                .add("basedir", project.getBasedir());
+        for (File filter : getFilterFiles()) {
+            fingerprint.addFile("filter", filter);
+        }
+        if (project.getModel() != null) {
+            StringWriter model = new StringWriter();
+            new MavenXpp3Writer().write(model, project.getModel());
+            fingerprint.add("model", model);
+        }
+        fingerprint.addAll("project.properties", project.getProperties());
+        if (session != null) {
+            fingerprint
+                    .addAll("user.properties", session.getUserProperties())
+                    .addAll("system.properties", session.getSystemProperties());
+        }
+        return fingerprint.getValue();
+    }
+
+    private static String getStamp(File file) {
+        return file.length() + "|" + file.lastModified();
+    }
+
+    private File resolveFile(String path) {
+        File file = new File(path);
+        if (!file.isAbsolute() && project.getBasedir() != null) {
+            file = new File(project.getBasedir(), path);
+        }
+        return file;
+    }
+
+    private File getTargetDirectory(Resource resource) {
+        if (resource.getTargetPath() == null) {
+            return buildDir;
+        }
+        File targetPath = new File(resource.getTargetPath());
+        return targetPath.isAbsolute() ? targetPath : new File(buildDir, resource.getTargetPath());
+    }
+
+    /**
+     * @return the target directory of a resource relative to the work directory, so that the fingerprint of the
+     *         content does not depend on the location of the project, or its absolute path if it lies elsewhere
+     */
+    private String getTargetPath(Resource resource) {
+        Path buildPath = buildDir.toPath().toAbsolutePath().normalize();
+        Path target = getTargetDirectory(resource).toPath().toAbsolutePath().normalize();
+        if (!target.startsWith(buildPath)) {
+            return target.toString();
+        }
+        return buildPath.relativize(target).toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Computes the files the resource filtering wrote for a resource, the way maven-filtering selects them.
+     *
+     * @param resource the resource
+     * @return the source files keyed by the paths of their copies relative to the work directory, without those
+     *         copied elsewhere
+     */
+    private Map<String, File> getResourceTargets(Resource resource) {
+        Map<String, File> targets = new TreeMap<>();
+        File directory = resolveFile(resource.getDirectory());
+        if (!directory.isDirectory()) {
+            return targets;
+        }
+        File targetDirectory = getTargetDirectory(resource);
+
+        DirectoryScanner scanner = new DirectoryScanner();
+        scanner.setBasedir(directory);
+        if (!resource.getIncludes().isEmpty()) {
+            scanner.setIncludes(resource.getIncludes().toArray(new String[0]));
+        }
+        if (!resource.getExcludes().isEmpty()) {
+            scanner.setExcludes(resource.getExcludes().toArray(new String[0]));
+        }
+        scanner.addDefaultExcludes();
+        scanner.scan();
+
+        Path buildPath = buildDir.toPath().toAbsolutePath().normalize();
+        for (String file : scanner.getIncludedFiles()) {
+            Path target = new File(targetDirectory, file).toPath().toAbsolutePath().normalize();
+            if (target.startsWith(buildPath)) {
+                targets.put(
+                        buildPath.relativize(target).toString().replace(File.separatorChar, '/'),
+                        new File(directory, file));
+            }
+        }
+        return targets;
+    }
+}
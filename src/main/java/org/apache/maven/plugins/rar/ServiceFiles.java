@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.plugins.rar;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the service provider files below <code>META-INF/services</code>, see {@link java.util.ServiceLoader}.
+ */
+final class ServiceFiles {
+    private static final String SERVICES = "META-INF/services/";
+
+    private ServiceFiles() {
+        // no op
+    }
+
+    /**
+     * @param name the name of a jar entry
+     * @return <code>true</code> if the entry is a service provider file
+     */
+    static boolean isServiceFile(String name) {
+        return name.startsWith(SERVICES) && name.indexOf('/', SERVICES.length()) < 0;
+    }
+
+    /**
+     * @param in the content of a service provider file, encoded in UTF-8
+     * @return the provider class names, without comments and blank lines
+     * @throws IOException if the file could not be read
+     */
+    static List<String> readProviders(InputStream in) throws IOException {
+        List<String> providers = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+            int comment = line.indexOf('#');
+            String provider = (comment < 0 ? line : line.substring(0, comment)).trim();
+            if (!provider.isEmpty()) {
+                providers.add(provider);
+            }
+        }
+        return providers;
+    }
+}
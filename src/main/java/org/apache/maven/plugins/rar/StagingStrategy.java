@@ -0,0 +1,61 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.plugins.rar;
+
+import java.util.Locale;
+
+/**
+ * How the libraries of the RAR are placed in the work directory.
+ */
+enum StagingStrategy {
+    /**
+     * Copy the content of each file.
+     */
+    COPY,
+
+    /**
+     * Create a hard link to each file.
+     */
+    HARDLINK,
+
+    /**
+     * Clone each file with copy-on-write, also known as reflink.
+     */
+    REFLINK;
+
+    /**
+     * @param value <code>copy</code>, <code>hardlink</code>, <code>reflink</code> or <code>clone</code>
+     * @return the matching strategy
+     * @throws IllegalArgumentException if the value does not match any strategy
+     */
+    static StagingStrategy of(String value) {
+        switch (value == null ? "copy" : value.trim().toLowerCase(Locale.ROOT)) {
+            case "copy":
+                return COPY;
+            case "hardlink":
+                return HARDLINK;
+            case "reflink":
+            case "clone":
+                return REFLINK;
+            default:
+                throw new IllegalArgumentException(
+                        "Unknown staging strategy '" + value + "', expected copy, hardlink, reflink or clone");
+        }
+    }
+}
@@ -19,15 +19,38 @@
 package org.apache.maven.plugins.rar;
 
 import java.io.File;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.TreeMap;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
+import org.apache.maven.archiver.MavenArchiveConfiguration;
+import org.apache.maven.plugin.MojoExecution;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.descriptor.MojoDescriptor;
+import org.apache.maven.plugin.logging.SystemStreamLog;
 import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.project.MavenProjectHelper;
 import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
+import org.codehaus.plexus.util.xml.Xpp3DomBuilder;
 
 /**
  * @author <a href="mailto:aramirez@apache.org">Allan Ramirez</a>
@@ -265,6 +288,1217 @@ public class RarMojoTest extends AbstractMojoTestCase {
         }
     }
 
+    public void testDirectArchive() throws Exception {
+        RarMojo mojo = lookupRarMojo("rar", "basic-rar-direct-archive");
+
+        File workDir = getWorkDirectory(mojo);
+
+        FileUtils.deleteDirectory(workDir);
+        copyProjectJar(mojo);
+
+        mojo.execute();
+
+        // the libraries are added to the RAR from their location, only the resources are copied
+        assertTrue(new File(workDir, "META-INF/ra.xml").isFile());
+        assertFalse(new File(workDir, "test-rar.jar").exists());
+        assertFalse(new File(workDir, "maven-artifact01-1.0-SNAPSHOT.jar").exists());
+
+        Map<String, String> direct = readEntries(getRarFile(mojo));
+        assertTrue(direct.toString(), direct.containsKey("test-rar.jar"));
+
+        // the RAR has the same content as one assembled from the work directory
+        mojo = lookupRarMojo("rar", "basic-rar-direct-archive");
+        setVariableValueToObject(mojo, "directArchive", false);
+
+        mojo.execute();
+
+        assertTrue(new File(workDir, "test-rar.jar").isFile());
+        assertEquals(direct, readEntries(getRarFile(mojo)));
+    }
+
+    public void testParallelCopy() throws Exception {
+        RarMojo mojo = lookupRarMojo("rar", "basic-rar-parallel-copy");
+
+        assertEquals(4, (int) getVariableValueFromObject(mojo, "copyThreads"));
+
+        File workDir = getWorkDirectory(mojo);
+
+        FileUtils.deleteDirectory(workDir);
+        File projectJar = copyProjectJar(mojo);
+
+        mojo.execute();
+
+        // every library is copied completely, whichever thread copied it
+        assertSameContent(projectJar, new File(workDir, "test-rar.jar"));
+        for (String artifactId : new String[] {"maven-artifact01", "maven-artifact02"}) {
+            assertSameContent(getDependencyFile(artifactId), new File(workDir, artifactId + "-1.0-SNAPSHOT.jar"));
+        }
+    }
+
+    public void testStagingStrategies() throws Exception {
+        FileUtils.deleteDirectory(getWorkDirectory(lookupRarMojo("rar", "basic-rar-hardlink")));
+        for (String strategy : new String[] {"hardlink", "clone", "copy"}) {
+            RarMojo mojo = lookupRarMojo("rar", "basic-rar-hardlink");
+
+            setVariableValueToObject(mojo, "stagingStrategy", strategy);
+
+            File workDir = getWorkDirectory(mojo);
+
+            mojo.execute();
+
+            // linked, cloned or copied, the staged files have the content of the dependencies; the links of the
+            // previous build are not kept by the other strategies
+            for (String artifactId : new String[] {"maven-artifact01", "maven-artifact02"}) {
+                File dependency = getDependencyFile(artifactId);
+                File staged = new File(workDir, artifactId + "-1.0-SNAPSHOT.jar");
+
+                assertSameContent(dependency, staged);
+                if (!strategy.equals("hardlink")) {
+                    assertFalse(strategy, Files.isSameFile(dependency.toPath(), staged.toPath()));
+                }
+            }
+
+            try (ZipFile rar = new ZipFile(getRarFile(mojo))) {
+                assertNotNull(strategy, rar.getEntry("maven-artifact01-1.0-SNAPSHOT.jar"));
+            }
+        }
+    }
+
+    public void testSkipIfUpToDate() throws Exception {
+        RarMojo mojo = lookupRarMojo("rar", "basic-rar-up-to-date");
+
+        File workDir = getWorkDirectory(mojo);
+
+        File rarFile = getRarFile(mojo);
+
+        mojo.execute();
+
+        assertTrue(new File(rarFile.getPath() + ".fingerprint").exists());
+
+        // nothing changed, so the rar is not assembled again
+        FileUtils.deleteDirectory(workDir);
+        long lastModified = rarFile.lastModified();
+
+        mojo = lookupRarMojo("rar", "basic-rar-up-to-date");
+
+        mojo.execute();
+
+        assertFalse(workDir.exists());
+        assertEquals(lastModified, rarFile.lastModified());
+
+        // a changed input triggers a new assembly
+        mojo = lookupRarMojo("rar", "basic-rar-up-to-date");
+
+        setVariableValueToObject(mojo, "outputTimestamp", "2020-05-01T12:12:12Z");
+
+        mojo.execute();
+
+        assertTrue(workDir.exists());
+        try (ZipFile rar = new ZipFile(rarFile)) {
+            assertEquals(
+                    Instant.parse("2020-05-01T12:12:12Z").toEpochMilli(),
+                    rar.getEntry("META-INF/MANIFEST.MF").getLastModifiedTime().toMillis());
+        }
+    }
+
+    public void testBuildCache() throws Exception {
+        RarMojo mojo = lookupRarMojo("rar", "basic-rar-build-cache");
+
+        File sourceDir = getSourceDirectory(mojo);
+
+        File workDir = getWorkDirectory(mojo);
+
+        File outputDir = getOutputDirectory(mojo);
+
+        File cacheDir = (File) getVariableValueFromObject(mojo, "buildCacheDirectory");
+
+        FileUtils.deleteDirectory(sourceDir);
+        FileUtils.deleteDirectory(outputDir);
+        FileUtils.deleteDirectory(cacheDir);
+        sourceDir.mkdirs();
+        File readme = new File(sourceDir, "readme.txt");
+        FileUtils.fileWrite(readme, "UTF-8", "readme");
+
+        List<String> messages = recordInfo(mojo);
+
+        mojo.execute();
+
+        File rarFile = getRarFile(mojo);
+        String key = getBuildCacheKey(messages);
+        File cachedRarFile = new File(cacheDir, key + ".rar");
+        assertSameContent(rarFile, cachedRarFile);
+
+        // the key only depends on the content of the inputs
+        byte[] built = Files.readAllBytes(rarFile.toPath());
+        FileUtils.deleteDirectory(outputDir);
+        assertTrue(readme.setLastModified(readme.lastModified() - 60000));
+
+        mojo = lookupRarMojo("rar", "basic-rar-build-cache");
+        messages = recordInfo(mojo);
+
+        mojo.execute();
+
+        assertTrue(
+                messages.toString(),
+                messages.contains("Restored test-rar-build-cache.rar from the build cache, key " + key));
+        assertFalse(workDir.exists());
+        assertTrue(Arrays.equals(built, Files.readAllBytes(rarFile.toPath())));
+
+        // a changed input misses the cache, storing the RAR deletes the expired ones
+        FileUtils.fileWrite(readme, "UTF-8", "changed");
+        File expired = new File(cacheDir, "expired.rar");
+        FileUtils.fileWrite(expired, "UTF-8", "expired");
+        assertTrue(expired.setLastModified(System.currentTimeMillis() - 31L * 24 * 60 * 60 * 1000));
+
+        mojo = lookupRarMojo("rar", "basic-rar-build-cache");
+
+        mojo.execute();
+
+        assertTrue(workDir.exists());
+        assertEquals("changed", readEntries(rarFile).get("readme.txt"));
+        assertFalse(expired.exists());
+        File[] cached = cacheDir.listFiles();
+        assertNotNull(cached);
+        assertEquals(2, cached.length);
+
+        // filtered resources add the values they refer to, and only those, including those of the model
+        FileUtils.fileWrite(readme, "UTF-8", "${greeting} ${project.description}");
+        String filteredKey = getFilteredBuildCacheKey("hello", "one", "inherited");
+        assertEquals("hello inherited", readEntries(rarFile).get("readme.txt"));
+        assertEquals(filteredKey, getFilteredBuildCacheKey("hello", "two", "inherited"));
+        assertFalse(filteredKey.equals(getFilteredBuildCacheKey("bye", "one", "inherited")));
+        assertFalse(filteredKey.equals(getFilteredBuildCacheKey("hello", "one", "overridden")));
+        assertEquals("hello overridden", readEntries(rarFile).get("readme.txt"));
+    }
+
+    /**
+     * Builds the RAR with a filtered source directory.
+     *
+     * @return the build cache key
+     */
+    private String getFilteredBuildCacheKey(String greeting, String unused, String description) throws Exception {
+        RarMojo mojo = lookupRarMojo("rar", "basic-rar-build-cache");
+        setVariableValueToObject(mojo, "filterRarSourceDirectory", true);
+        MavenProject project = (MavenProject) getVariableValueFromObject(mojo, "project");
+        project.getProperties().setProperty("greeting", greeting);
+        project.getProperties().setProperty("unused", unused);
+        project.setDescription(description);
+        List<String> messages = recordInfo(mojo);
+
+        mojo.execute();
+
+        return getBuildCacheKey(messages);
+    }
+
+    private static String getBuildCacheKey(List<String> messages) {
+        for (String message : messages) {
+            if (message.startsWith("Build cache key of ") || message.contains(" from the build cache, key ")) {
+                return message.substring(message.lastIndexOf(' ') + 1);
+            }
+        }
+        throw new AssertionError("No build cache key logged: " + messages);
+    }
+
+    public void testRestageKeepsUnchangedAndDeletesStaleFiles() throws Exception {
+        RarMojo mojo = lookupRarMojo("rar", "basic-rar-stale");
+
+        File workDir = getWorkDirectory(mojo);
+
+        mojo.execute();
+
+        File staged = new File(workDir, "maven-artifact01-1.0-SNAPSHOT.jar");
+
+        assertTrue(staged.isFile());
+
+        File record = new File(workDir + ".staged");
+
+        assertTrue(FileUtils.fileRead(record).contains("maven-artifact01-1.0-SNAPSHOT.jar"));
+
+        // a file with the size and last modification time of its source is not copied again
+        long lastModified = staged.lastModified();
+        char[] content = FileUtils.fileRead(staged, "ISO-8859-1").toCharArray();
+        content[0] = (char) (content[0] + 1);
+        FileUtils.fileWrite(staged, "ISO-8859-1", new String(content));
+        staged.setLastModified(lastModified);
+
+        // a library staged by an earlier build for a dependency that has been removed since
+        File removed = new File(workDir, "removed-dependency-1.0.jar");
+        FileUtils.fileWrite(removed, "removed");
+        FileUtils.fileAppend(record.getPath(), "removed-dependency-1.0.jar\n");
+
+        // a file placed in the work directory by someone else
+        File foreign = new File(workDir, "foreign.txt");
+        FileUtils.fileWrite(foreign, "foreign");
+
+        mojo = lookupRarMojo("rar", "basic-rar-stale");
+
+        mojo.execute();
+
+        assertEquals(new String(content), FileUtils.fileRead(staged, "ISO-8859-1"));
+
+        assertFalse(removed.exists());
+
+        assertTrue(foreign.exists());
+
+        assertFalse(FileUtils.fileRead(record).contains("removed-dependency-1.0.jar"));
+
+        assertFalse(readEntries(getRarFile(mojo)).containsKey("removed-dependency-1.0.jar"));
+    }
+
+    public void testParallelCompression() throws Exception {
+        RarMojo mojo = lookupRarMojo("rar", "basic-rar-parallel-compression");
+
+        File projectJar = copyProjectJar(mojo);
+
+        // a small archive is deflated on a single thread
+        setVariableValueToObject(mojo, "compressionThreads", 1);
+
+        mojo.execute();
+
+        File rarFile = getRarFile(mojo);
+
+        byte[] serial = Files.readAllBytes(rarFile.toPath());
+
+        assertEquals(FileUtils.fileRead(projectJar, "ISO-8859-1"), readEntries(rarFile).get("test-rar.jar"));
+
+        // the archive written by several threads is the same
+        mojo = lookupRarMojo("rar", "basic-rar-parallel-compression");
+
+        setVariableValueToObject(mojo, "compressionThreads", 4);
+
+        setVariableValueToObject(mojo, "parallelCompressionThreshold", 0L);
+
+        mojo.execute();
+
+        assertTrue(Arrays.equals(serial, Files.readAllBytes(rarFile.toPath())));
+    }
+
+    public void testArchiveBackend() throws Exception {
+        RarMojo mojo = lookupRarMojo("rar", "basic-rar-archive-backend");
+
+        copyProjectJar(mojo);
+
+        mojo.execute();
+
+        File rarFile = getRarFile(mojo);
+
+        byte[] direct = Files.readAllBytes(rarFile.toPath());
+
+        Map<String, String> directEntries = readEntries(rarFile);
+
+        // the direct backend is the one used for parallel compression
+        mojo = lookupRarMojo("rar", "basic-rar-archive-backend");
+        setVariableValueToObject(mojo, "archiveBackend", null);
+        setVariableValueToObject(mojo, "parallelCompression", true);
+        mojo.execute();
+
+        assertTrue(Arrays.equals(direct, Files.readAllBytes(rarFile.toPath())));
+
+        // the plexus backend writes the same entries
+        mojo = lookupRarMojo("rar", "basic-rar-archive-backend");
+        setVariableValueToObject(mojo, "archiveBackend", "plexus");
+        mojo.execute();
+
+        assertEquals(directEntries, readEntries(rarFile));
+
+        mojo = lookupRarMojo("rar", "basic-rar-archive-backend");
+        setVariableValueToObject(mojo, "archiveBackend", "unknown");
+        try {
+            mojo.execute();
+            fail("An unknown archive backend must fail the build");
+        } catch (MojoExecutionException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("unknown"));
+        }
+    }
+
+    public void testIncrementalArchive() throws Exception {
+        RarMojo mojo = lookupRarMojo("rar", "basic-rar-incremental-archive");
+
+        File sourceDir = getSourceDirectory(mojo);
+
+        File outputDir = getOutputDirectory(mojo);
+
+        FileUtils.deleteDirectory(sourceDir);
+        FileUtils.deleteDirectory(outputDir);
+        copyProjectJar(mojo);
+        sourceDir.mkdirs();
+        FileUtils.fileWrite(new File(sourceDir, "readme.txt"), "UTF-8", "first");
+        FileUtils.fileWrite(new File(sourceDir, "notes.txt"), "UTF-8", "unchanged");
+        FileUtils.fileWrite(new File(sourceDir, "crc.txt"), "UTF-8", "plumless");
+
+        mojo.execute();
+
+        File rarFile = getRarFile(mojo);
+
+        // only the changed resources are deflated again, including one with the same size and CRC
+        FileUtils.fileWrite(new File(sourceDir, "readme.txt"), "UTF-8", "second");
+        FileUtils.fileWrite(new File(sourceDir, "crc.txt"), "UTF-8", "buckeroo");
+
+        mojo = lookupRarMojo("rar", "basic-rar-incremental-archive");
+        List<String> messages = recordInfo(mojo);
+
+        mojo.execute();
+
+        assertTrue(messages.toString(), messages.contains("Reused 5 unchanged entries of test-rar.rar"));
+        Map<String, String> entries = readEntries(rarFile);
+        assertEquals("second", entries.get("readme.txt"));
+        assertEquals("unchanged", entries.get("notes.txt"));
+        assertEquals("buckeroo", entries.get("crc.txt"));
+        assertFalse(new File(outputDir, "test-rar.rar.tmp").exists());
+        assertFalse(new File(outputDir, "test-rar.rar.changed").exists());
+
+        // the updated archive is the same as an archive written from scratch
+        byte[] updated = Files.readAllBytes(rarFile.toPath());
+        assertTrue(rarFile.delete());
+
+        mojo = lookupRarMojo("rar", "basic-rar-incremental-archive");
+
+        mojo.execute();
+
+        assertTrue(Arrays.equals(updated, Files.readAllBytes(rarFile.toPath())));
+    }
+
+    public void testPipelined() throws Exception {
+        RarMojo mojo = lookupRarMojo("rar", "basic-rar-pipelined");
+
+        File sourceDir = getSourceDirectory(mojo);
+
+        File outputDir = getOutputDirectory(mojo);
+
+        FileUtils.deleteDirectory(sourceDir);
+        FileUtils.deleteDirectory(outputDir);
+        copyProjectJar(mojo);
+        sourceDir.mkdirs();
+        FileUtils.fileWrite(new File(sourceDir, "readme.txt"), "UTF-8", "readme");
+        new File(sourceDir, "META-INF").mkdirs();
+        FileUtils.fileWrite(new File(sourceDir, "META-INF/notes.txt"), "UTF-8", "notes");
+
+        List<String> messages = recordInfo(mojo);
+
+        mojo.execute();
+
+        // the resources are deflated while the RAR is prepared, the jar is stored
+        assertTrue(messages.toString(), messages.contains("Reused 2 entries of 2 deflated while preparing the RAR"));
+        File rarFile = getRarFile(mojo);
+        Map<String, String> entries = readEntries(rarFile);
+        assertEquals("readme", entries.get("readme.txt"));
+        assertEquals("notes", entries.get("META-INF/notes.txt"));
+        assertFalse(new File(outputDir, "test-rar.rar.pipeline").exists());
+
+        // the same archive as without the pipeline
+        byte[] pipelined = Files.readAllBytes(rarFile.toPath());
+        assertTrue(rarFile.delete());
+
+        mojo = lookupRarMojo("rar", "basic-rar-pipelined");
+        setVariableValueToObject(mojo, "pipelined", false);
+        setVariableValueToObject(mojo, "parallelCompression", true);
+
+        mojo.execute();
+
+        assertTrue(Arrays.equals(pipelined, Files.readAllBytes(rarFile.toPath())));
+    }
+
+    public void testExploded() throws Exception {
+        RarMojo mojo = lookupRarMojo("exploded", "basic-rar-exploded");
+
+        File sourceDir = getSourceDirectory(mojo);
+
+        File workDir = getWorkDirectory(mojo);
+
+        File outputDir = getOutputDirectory(mojo);
+
+        FileUtils.deleteDirectory(sourceDir);
+        FileUtils.deleteDirectory(outputDir);
+        copyProjectJar(mojo);
+        sourceDir.mkdirs();
+        FileUtils.fileWrite(new File(sourceDir, "readme.txt"), "UTF-8", "first");
+        FileUtils.fileWrite(new File(sourceDir, "notes.txt"), "UTF-8", "notes");
+
+        mojo.execute();
+
+        assertFalse(getRarFile(mojo).exists());
+        assertEquals("first", FileUtils.fileRead(new File(workDir, "readme.txt"), "UTF-8"));
+        assertTrue(new File(workDir, "notes.txt").exists());
+        assertTrue(new File(workDir, "test-rar.jar").exists());
+        assertTrue(new File(workDir, "maven-artifact01-1.0-SNAPSHOT.jar").exists());
+        assertSameContent(getRaXmlFile(mojo), new File(workDir, "META-INF/ra.xml"));
+        File manifest = new File(workDir, "META-INF/MANIFEST.MF");
+        String manifestContent = FileUtils.fileRead(manifest, "UTF-8");
+        assertTrue(manifestContent, manifestContent.contains("Created-By: Maven RAR Plugin"));
+        // the custom manifest is merged into the generated one
+        assertTrue(manifestContent, manifestContent.contains("Implementation-Title: maven-rar-test"));
+
+        // unchanged files are left untouched, changed ones are rewritten and removed ones deleted
+        assertTrue(manifest.setLastModified(1000000000000L));
+        FileUtils.fileWrite(new File(sourceDir, "readme.txt"), "UTF-8", "second");
+        assertTrue(new File(sourceDir, "notes.txt").delete());
+
+        mojo = lookupRarMojo("exploded", "basic-rar-exploded");
+
+        mojo.execute();
+
+        assertEquals(1000000000000L, manifest.lastModified());
+        assertEquals("second", FileUtils.fileRead(new File(workDir, "readme.txt"), "UTF-8"));
+        assertFalse(new File(workDir, "notes.txt").exists());
+        assertFalse(getRarFile(mojo).exists());
+    }
+
+    public void testVariants() throws Exception {
+        RarMojo mojo = lookupRarMojo("rar", "basic-rar-variants");
+
+        File sourceDir = getSourceDirectory(mojo);
+
+        File workDir = getWorkDirectory(mojo);
+
+        File outputDir = getOutputDirectory(mojo);
+
+        // records the classifiers of the attached artifacts
+        List<String> classifiers = new ArrayList<>();
+        Object projectHelper = Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[] {MavenProjectHelper.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("attachArtifact") && args.length == 4) {
+                        classifiers.add((String) args[2]);
+                    }
+                    return null;
+                });
+        setVariableValueToObject(mojo, "projectHelper", projectHelper);
+
+        FileUtils.deleteDirectory(sourceDir);
+        copyProjectJar(mojo);
+        sourceDir.mkdirs();
+        FileUtils.fileWrite(new File(sourceDir, "readme.txt"), "UTF-8", "readme");
+        File extraDir = new File(sourceDir.getParentFile(), "extra");
+        extraDir.mkdirs();
+        FileUtils.fileWrite(new File(extraDir, "extra.txt"), "UTF-8", "extra");
+
+        mojo.execute();
+
+        Map<String, String> main = readEntries(getRarFile(mojo));
+        assertTrue(main.containsKey("test-rar.jar"));
+        assertFalse(main.containsKey("extra.txt"));
+
+        // a variant only differs from the main RAR by the settings it overrides
+        Map<String, String> noJar = readEntries(new File(outputDir, "test-rar-nojar.rar"));
+        Map<String, String> expected = new TreeMap<>(main);
+        expected.remove("test-rar.jar");
+        assertEquals(expected, noJar);
+
+        Map<String, String> extra = readEntries(new File(outputDir, "test-rar-extra.rar"));
+        expected = new TreeMap<>(main);
+        expected.put("extra.txt", "extra");
+        assertEquals(expected, extra);
+
+        // only the resources of a variant are staged in its own work directory
+        assertTrue(new File(workDir + "-extra", "extra.txt").isFile());
+        assertFalse(new File(workDir + "-extra", "maven-artifact01-1.0-SNAPSHOT.jar").exists());
+
+        assertEquals(Arrays.asList("nojar", "extra"), classifiers);
+    }
+
+    public void testWatch() throws Exception {
+        RarMojo mojo = lookupRarMojo("watch", "basic-rar-watch");
+
+        File sourceDir = getSourceDirectory(mojo);
+
+        File workDir = getWorkDirectory(mojo);
+
+        FileUtils.deleteDirectory(sourceDir);
+        FileUtils.deleteDirectory(workDir);
+        copyProjectJar(mojo);
+        List<String> messages = recordInfo(mojo);
+
+        List<Exception> failures = Collections.synchronizedList(new ArrayList<>());
+        Thread thread = new Thread(() -> {
+            try {
+                mojo.execute();
+            } catch (Exception e) {
+                failures.add(e);
+            }
+        });
+        thread.start();
+        try {
+            // the RAR source directory does not exist yet, it is watched once it is created
+            String watching = "Watching the inputs of the RAR for changes, interrupt the build to stop";
+            assertTrue(waitFor(() -> messages.contains(watching)));
+            sourceDir.mkdirs();
+            FileUtils.fileWrite(new File(sourceDir, "readme.txt"), "UTF-8", "first");
+
+            File readme = new File(workDir, "readme.txt");
+            assertTrue(waitFor(() -> readme.exists() && "first".equals(FileUtils.fileRead(readme, "UTF-8"))));
+
+            FileUtils.fileWrite(new File(sourceDir, "readme.txt"), "UTF-8", "second");
+            FileUtils.fileWrite(new File(sourceDir, "notes.txt"), "UTF-8", "notes");
+
+            assertTrue(waitFor(() -> "second".equals(FileUtils.fileRead(readme, "UTF-8"))
+                    && new File(workDir, "notes.txt").exists()));
+            assertTrue(new File(workDir, "test-rar.jar").exists());
+            assertFalse(getRarFile(mojo).exists());
+
+            // a removed resource is removed from the exploded RAR
+            assertTrue(new File(sourceDir, "notes.txt").delete());
+
+            assertTrue(waitFor(() -> !new File(workDir, "notes.txt").exists()));
+        } finally {
+            thread.interrupt();
+            thread.join(10000);
+        }
+        assertFalse(thread.isAlive());
+        assertEquals(Collections.emptyList(), failures);
+        // only the resources changed, so the libraries and the metadata were only staged by the first build
+        assertEquals(messages.toString(), 1, Collections.frequency(messages, "Exploded RAR in " + workDir));
+    }
+
+    private interface Condition {
+        boolean isMet() throws Exception;
+    }
+
+    private static boolean waitFor(Condition condition) throws Exception {
+        long deadline = System.currentTimeMillis() + 30000;
+        while (System.currentTimeMillis() < deadline) {
+            if (condition.isMet()) {
+                return true;
+            }
+            Thread.sleep(50);
+        }
+        return condition.isMet();
+    }
+
+    public void testStoreCompressedEntries() throws Exception {
+        RarMojo mojo = lookupRarMojo("rar", "basic-rar-parallel-compression");
+
+        File outputDir = getOutputDirectory(mojo);
+
+        copyProjectJar(mojo);
+
+        setVariableValueToObject(mojo, "storeExcludes", Collections.singletonList("test-*.jar"));
+
+        mojo.execute();
+
+        File rarFile = getRarFile(mojo);
+
+        // libraries are stored by default, unless excluded
+        try (ZipFile rar = new ZipFile(rarFile)) {
+            assertEquals(ZipEntry.STORED, rar.getEntry("maven-artifact01-1.0-SNAPSHOT.jar").getMethod());
+            assertEquals(ZipEntry.STORED, rar.getEntry("maven-artifact02-1.0-SNAPSHOT.jar").getMethod());
+            assertEquals(ZipEntry.DEFLATED, rar.getEntry("test-rar.jar").getMethod());
+            assertEquals(ZipEntry.DEFLATED, rar.getEntry("META-INF/MANIFEST.MF").getMethod());
+        }
+
+        mojo = lookupRarMojo("rar", "basic-rar-parallel-compression");
+
+        setVariableValueToObject(mojo, "storeCompressedEntries", false);
+
+        mojo.execute();
+
+        try (ZipFile rar = new ZipFile(rarFile)) {
+            assertEquals(ZipEntry.DEFLATED, rar.getEntry("maven-artifact01-1.0-SNAPSHOT.jar").getMethod());
+        }
+
+        // the plexus archiver stores nested archives, recognized by their content, whatever the patterns
+        writeJar(new File(outputDir, "test-rar.jar"), "readme.txt=readme readme readme readme readme");
+        mojo = lookupRarMojo("rar", "basic-rar-parallel-compression");
+        setVariableValueToObject(mojo, "parallelCompression", false);
+        setVariableValueToObject(mojo, "storeExcludes", Collections.singletonList("test-*.jar"));
+        MavenArchiveConfiguration archive = (MavenArchiveConfiguration) getVariableValueFromObject(mojo, "archive");
+        List<String> warnings = recordWarnings(mojo);
+
+        mojo.execute();
+
+        try (ZipFile rar = new ZipFile(rarFile)) {
+            assertEquals(ZipEntry.STORED, rar.getEntry("test-rar.jar").getMethod());
+        }
+        assertTrue(archive.isRecompressAddedZips());
+        assertEquals(
+                Collections.singletonList("storeIncludes and storeExcludes have no effect with the plexus archive"
+                        + " backend, which recognizes nested archives by their content"),
+                warnings);
+
+        // unless recompressAddedZips is configured explicitly
+        mojo = lookupRarMojo("rar", "basic-rar-parallel-compression");
+        setVariableValueToObject(mojo, "parallelCompression", false);
+        Xpp3Dom configuration = Xpp3DomBuilder.build(
+                new StringReader("<configuration><archive><recompressAddedZips>true</recompressAddedZips></archive>"
+                        + "</configuration>"));
+        MojoExecution execution = new MojoExecution(new MojoDescriptor());
+        execution.setConfiguration(configuration);
+        setVariableValueToObject(mojo, "mojoExecution", execution);
+
+        mojo.execute();
+
+        try (ZipFile rar = new ZipFile(rarFile)) {
+            assertEquals(ZipEntry.DEFLATED, rar.getEntry("test-rar.jar").getMethod());
+        }
+    }
+
+    public void testShareDependencies() throws Exception {
+        RarMojo mojo = lookupRarMojo("rar", "basic-rar-share-dependencies");
+
+        File cacheDir = (File) getVariableValueFromObject(mojo, "dependencyCacheDirectory");
+
+        FileUtils.deleteDirectory(getOutputDirectory(mojo));
+        FileUtils.deleteDirectory(cacheDir);
+
+        List<String> messages = recordInfo(mojo);
+
+        mojo.execute();
+
+        assertTrue(messages.toString(), messages.contains("Using 2 dependencies deflated by the RAR dependency cache"));
+        File[] cached = cacheDir.listFiles();
+        assertNotNull(cached);
+        assertEquals(2, cached.length);
+
+        File rarFile = getRarFile(mojo);
+        byte[] shared = Files.readAllBytes(rarFile.toPath());
+        try (ZipFile rar = new ZipFile(rarFile)) {
+            assertEquals(ZipEntry.DEFLATED, rar.getEntry("maven-artifact01-1.0-SNAPSHOT.jar").getMethod());
+        }
+
+        // another module reuses the deflated jars, which are marked as used, and deletes the expired ones
+        long used = System.currentTimeMillis() - 2L * 24 * 60 * 60 * 1000;
+        Object[] keys = new Object[cached.length];
+        for (int i = 0; i < cached.length; i++) {
+            assertTrue(cached[i].setLastModified(used));
+            keys[i] = Files.readAttributes(cached[i].toPath(), BasicFileAttributes.class).fileKey();
+        }
+        File expired = new File(cacheDir, "expired.zip");
+        FileUtils.fileWrite(expired, "expired");
+        assertTrue(expired.setLastModified(System.currentTimeMillis() - 8L * 24 * 60 * 60 * 1000));
+        assertTrue(rarFile.delete());
+
+        mojo = lookupRarMojo("rar", "basic-rar-share-dependencies");
+        messages = recordInfo(mojo);
+
+        mojo.execute();
+
+        assertTrue(Arrays.equals(shared, Files.readAllBytes(rarFile.toPath())));
+        for (int i = 0; i < cached.length; i++) {
+            assertEquals(keys[i], Files.readAttributes(cached[i].toPath(), BasicFileAttributes.class).fileKey());
+            assertTrue(cached[i].lastModified() > used);
+        }
+        assertFalse(expired.exists());
+        assertTrue(
+                messages.toString(),
+                messages.contains("Deleted 1 dependencies not used for 7 days from the RAR dependency cache"));
+
+        // the same archive as without sharing
+        assertTrue(rarFile.delete());
+
+        mojo = lookupRarMojo("rar", "basic-rar-share-dependencies");
+        setVariableValueToObject(mojo, "shareDependencies", false);
+        setVariableValueToObject(mojo, "parallelCompression", true);
+
+        mojo.execute();
+
+        assertTrue(Arrays.equals(shared, Files.readAllBytes(rarFile.toPath())));
+
+        // nothing to share when the jars are stored
+        mojo = lookupRarMojo("rar", "basic-rar-share-dependencies");
+        setVariableValueToObject(mojo, "storeCompressedEntries", true);
+        List<String> warnings = recordWarnings(mojo);
+
+        mojo.execute();
+
+        assertTrue(
+                warnings.toString(),
+                warnings.contains("shareDependencies has no effect, the dependency jars are stored rather than"
+                        + " deflated, see storeCompressedEntries"));
+    }
+
+    public void testMetrics() throws Exception {
+        RarMojo mojo = lookupRarMojo("rar", "basic-rar-metrics");
+
+        File metricsFile = (File) getVariableValueFromObject(mojo, "metricsFile");
+
+        // the metrics are only written on demand
+        metricsFile.delete();
+        setVariableValueToObject(mojo, "writeMetrics", false);
+
+        mojo.execute();
+
+        assertFalse(metricsFile.exists());
+
+        // without files left by an earlier run every dependency is copied
+        mojo = lookupRarMojo("rar", "basic-rar-metrics");
+        FileUtils.deleteDirectory(getWorkDirectory(mojo));
+
+        mojo.execute();
+
+        String metrics = FileUtils.fileRead(metricsFile, "UTF-8");
+
+        assertTrue(metrics, metrics.contains("\"upToDate\": false"));
+
+        for (String phase : new String[] {"jar", "dependencies", "resources", "descriptors", "archive"}) {
+            assertTrue(metrics, metrics.contains("{\"name\": \"" + phase + "\""));
+        }
+
+        assertTrue(
+                metrics,
+                metrics.matches("(?s).*\"dependencies\", \"millis\": \\d+, \"files\": 2, \"bytesRead\": 50,.*"));
+
+        assertTrue(metrics, metrics.matches("(?s).*\"archive\".*\"ratio\": [0-9.]+}.*"));
+    }
+
+    public void testIncrementalFiltering() throws Exception {
+        RarMojo mojo = lookupRarMojo("rar", "basic-rar-filtering");
+
+        File sourceDir = getSourceDirectory(mojo);
+
+        File workDir = getWorkDirectory(mojo);
+
+        File cache = new File(workDir + ".filtered");
+
+        // the sources are written by the test, so every run starts from the same content
+        FileUtils.deleteDirectory(sourceDir);
+        FileUtils.deleteDirectory(workDir);
+        cache.delete();
+
+        File connectorSource = new File(sourceDir, "META-INF/connector.properties");
+        File versionSource = new File(sourceDir, "META-INF/version.properties");
+        connectorSource.getParentFile().mkdirs();
+        FileUtils.fileWrite(connectorSource, "UTF-8", "artifactId=${project.artifactId}\n");
+        FileUtils.fileWrite(versionSource, "UTF-8", "version=${project.version}\n");
+
+        mojo.execute();
+
+        File connector = new File(workDir, "META-INF/connector.properties");
+        File version = new File(workDir, "META-INF/version.properties");
+
+        assertEquals("artifactId=maven-rar-test\n", FileUtils.fileRead(connector, "UTF-8"));
+        assertEquals("version=1.0-SNAPSHOT\n", FileUtils.fileRead(version, "UTF-8"));
+        assertTrue(cache.isFile());
+
+        long connectorTime = connector.lastModified();
+        long versionTime = version.lastModified();
+        Thread.sleep(50);
+
+        // only the resource whose source changed is filtered again
+        FileUtils.fileWrite(versionSource, "UTF-8", "version=${project.version}\nname=${project.artifactId}\n");
+
+        mojo = lookupRarMojo("rar", "basic-rar-filtering");
+        mojo.execute();
+
+        assertEquals(connectorTime, connector.lastModified());
+        assertTrue(versionTime != version.lastModified());
+        assertEquals("version=1.0-SNAPSHOT\nname=maven-rar-test\n", FileUtils.fileRead(version, "UTF-8"));
+
+        connectorTime = connector.lastModified();
+        Thread.sleep(50);
+
+        // a change of the filtering configuration filters everything again
+        mojo = lookupRarMojo("rar", "basic-rar-filtering");
+        setVariableValueToObject(mojo, "escapeString", "\\");
+        mojo.execute();
+
+        assertTrue(connectorTime != connector.lastModified());
+        assertEquals("artifactId=maven-rar-test\n", FileUtils.fileRead(connector, "UTF-8"));
+
+        // without incremental filtering, the default, maven-filtering handles every resource and no cache is kept
+        cache.delete();
+        FileUtils.fileWrite(connectorSource, "UTF-8", "name=${project.artifactId}\n");
+
+        mojo = lookupRarMojo("rar", "basic-rar-filtering");
+        setVariableValueToObject(mojo, "incrementalFiltering", false);
+        mojo.execute();
+
+        assertEquals("name=maven-rar-test\n", FileUtils.fileRead(connector, "UTF-8"));
+        assertFalse(cache.exists());
+    }
+
+    public void testAnnotationIndex() throws Exception {
+        RarMojo mojo = lookupRarMojo("rar", "basic-rar-annotation-index");
+
+        File workDir = getWorkDirectory(mojo);
+
+        new File(workDir + ".annotations").delete();
+
+        // a jar with a class annotated with @Named and @Singleton and an @Inject constructor
+        String className = "org/apache/maven/shared/filtering/DefaultMavenResourcesFiltering.class";
+        File projectJar = new File(getOutputDirectory(mojo), "test-rar-annotation-index.jar");
+        projectJar.getParentFile().mkdirs();
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream(className);
+                ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(projectJar.toPath()))) {
+            out.putNextEntry(new ZipEntry(className));
+            IOUtil.copy(in, out);
+            out.closeEntry();
+        }
+
+        mojo.execute();
+
+        String index = readEntries(getRarFile(mojo)).get("META-INF/annotations.idx");
+        assertNotNull(index);
+
+        String type = "org.apache.maven.shared.filtering.DefaultMavenResourcesFiltering";
+        List<String> lines = Arrays.asList(index.split("\n"));
+        assertTrue(index, lines.contains("javax.inject.Named " + type + " test-rar-annotation-index.jar"));
+        assertTrue(index, lines.contains("javax.inject.Singleton " + type + " test-rar-annotation-index.jar"));
+        assertTrue(index, index.contains("javax.inject.Inject " + type + "#<init>("));
+
+        // the annotations of the jar are cached by the hash of its content
+        String cache = FileUtils.fileRead(workDir + ".annotations", "UTF-8");
+        assertTrue(cache, cache.contains(InputsFingerprint.hash(projectJar) + "\tjavax.inject.Named\t" + type));
+    }
+
+    public void testPackageIndex() throws Exception {
+        RarMojo mojo = lookupRarMojo("rar", "basic-rar-package-index");
+
+        File sourceDir = getSourceDirectory(mojo);
+
+        FileUtils.deleteDirectory(sourceDir);
+        writeJar(
+                new File(sourceDir, "lib/library.jar"),
+                "com/example/",
+                "com/example/Library.class",
+                "com/example/util/",
+                "com/example/util/Strings.class");
+        writeJar(
+                new File(getOutputDirectory(mojo), "test-rar-package-index.jar"),
+                "META-INF/MANIFEST.MF",
+                "com/example/Connector.class",
+                "connector.properties");
+
+        List<String> warnings = recordWarnings(mojo);
+
+        mojo.execute();
+
+        // the dependencies of the project stub are not valid jars and are left out
+        assertEquals(
+                "JarIndex-Version: 1.0\n\n"
+                        + "lib/library.jar\ncom/example\ncom/example/util\n\n"
+                        + "test-rar-package-index.jar\ncom/example\nconnector.properties\n\n",
+                readEntries(getRarFile(mojo)).get("META-INF/INDEX.LIST"));
+
+        assertTrue(
+                warnings.toString(),
+                warnings.contains("Package com.example is split across lib/library.jar, test-rar-package-index.jar"));
+    }
+
+    public void testFlatten() throws Exception {
+        RarMojo mojo = lookupRarMojo("rar", "basic-rar-flatten");
+
+        File outputDir = getOutputDirectory(mojo);
+
+        File repository = new File(getBasedir(), "target/unit/basic-rar-flatten/repository");
+        writeJar(
+                new File(repository, "maven-artifact01-1.0-SNAPSHOT.jar"),
+                "META-INF/MANIFEST.MF=Manifest-Version: 1.0\n",
+                "META-INF/ARTIFACT.SF=signature",
+                "META-INF/services/com.example.Spi=com.example.a.SpiA\n",
+                "com/example/a/A.class=a",
+                "shared.properties=one");
+        writeJar(
+                new File(repository, "maven-artifact02-1.0-SNAPSHOT.jar"),
+                "module-info.class=module",
+                "META-INF/services/com.example.Spi=# providers\ncom.example.b.SpiB\ncom.example.a.SpiA\n",
+                "com/example/b/B.class=b",
+                "shared.properties=two");
+        writeJar(new File(outputDir, "test-rar-flatten.jar"), "com/example/Connector.class=connector");
+
+        List<String> warnings = recordWarnings(mojo);
+
+        mojo.execute();
+
+        File flattened = new File(outputDir, "flattened.jar");
+        try (ZipFile rar = new ZipFile(getRarFile(mojo))) {
+            assertNull(rar.getEntry("maven-artifact01-1.0-SNAPSHOT.jar"));
+            assertNull(rar.getEntry("maven-artifact02-1.0-SNAPSHOT.jar"));
+            try (InputStream in = rar.getInputStream(rar.getEntry("test-rar-flatten.jar"))) {
+                Files.copy(in, flattened.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+
+        Map<String, String> entries = readEntries(flattened);
+        assertEquals("connector", entries.get("com/example/Connector.class"));
+        assertEquals("a", entries.get("com/example/a/A.class"));
+        assertEquals("b", entries.get("com/example/b/B.class"));
+        assertEquals("one", entries.get("shared.properties"));
+        assertEquals("com.example.a.SpiA\ncom.example.b.SpiB\n", entries.get("META-INF/services/com.example.Spi"));
+        assertTrue(entries.get("META-INF/MANIFEST.MF").contains("Created-By: Maven RAR Plugin"));
+        assertFalse(entries.containsKey("META-INF/ARTIFACT.SF"));
+        assertFalse(entries.containsKey("module-info.class"));
+
+        assertTrue(
+                warnings.toString(),
+                warnings.contains("Entry with different content found in more than one jar, keeping the first: "
+                        + "shared.properties (maven-artifact01-1.0-SNAPSHOT.jar, maven-artifact02-1.0-SNAPSHOT.jar)"));
+
+        mojo = lookupRarMojo("rar", "basic-rar-flatten");
+        setVariableValueToObject(mojo, "flattenDuplicates", "fail");
+        try {
+            mojo.execute();
+            fail("Conflicting entries must fail the build");
+        } catch (MojoExecutionException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("shared.properties"));
+        }
+    }
+
+    public void testDuplicateEntries() throws Exception {
+        RarMojo mojo = lookupRarMojo("rar", "basic-rar-duplicates");
+
+        File repository = new File(getBasedir(), "target/unit/basic-rar-duplicates/repository");
+        writeJar(
+                new File(getOutputDirectory(mojo), "test-rar-duplicates.jar"),
+                "com/example/Connector.class=connector",
+                "com/example/a/A.class=a",
+                "shared.properties=one");
+        // everything but the manifest is in the generated jar file
+        writeJar(
+                new File(repository, "maven-artifact01-1.0-SNAPSHOT.jar"),
+                "META-INF/MANIFEST.MF=Manifest-Version: 1.0\n",
+                "com/example/a/A.class=a");
+        writeJar(
+                new File(repository, "maven-artifact02-1.0-SNAPSHOT.jar"),
+                "com/example/b/B.class=b",
+                "shared.properties=two");
+
+        List<String> warnings = recordWarnings(mojo);
+
+        mojo.execute();
+
+        Map<String, String> entries = readEntries(getRarFile(mojo));
+        assertTrue(entries.containsKey("test-rar-duplicates.jar"));
+        assertFalse(entries.containsKey("maven-artifact01-1.0-SNAPSHOT.jar"));
+        assertTrue(entries.containsKey("maven-artifact02-1.0-SNAPSHOT.jar"));
+
+        assertTrue(
+                warnings.toString(),
+                warnings.contains("test-rar-duplicates.jar, maven-artifact01-1.0-SNAPSHOT.jar share 1 class or "
+                        + "resource (1 identical, 0 different): com/example/a/A.class"));
+        assertTrue(
+                warnings.toString(),
+                warnings.contains("test-rar-duplicates.jar, maven-artifact02-1.0-SNAPSHOT.jar share 1 class or "
+                        + "resource (0 identical, 1 different): shared.properties"));
+
+        mojo = lookupRarMojo("rar", "basic-rar-duplicates");
+        setVariableValueToObject(mojo, "duplicateEntries", "fail");
+        try {
+            mojo.execute();
+            fail("Duplicates with different content must fail the build");
+        } catch (MojoExecutionException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("different content"));
+        }
+    }
+
+    public void testShrink() throws Exception {
+        RarMojo mojo = lookupRarMojo("rar", "basic-rar-shrink");
+
+        File sourceDir = getSourceDirectory(mojo);
+
+        FileUtils.deleteDirectory(sourceDir);
+        File raXml = new File(sourceDir, "META-INF/ra.xml");
+        raXml.getParentFile().mkdirs();
+        FileUtils.fileWrite(
+                raXml,
+                "UTF-8",
+                "<connector xmlns=\"http://xmlns.jcp.org/xml/ns/javaee\" version=\"1.7\">\n"
+                        + "  <resourceadapter>\n"
+                        + "    <resourceadapter-class>\n"
+                        + "      org.apache.maven.plugins.rar.stubs.RarMavenProjectStub2\n"
+                        + "    </resourceadapter-class>\n"
+                        + "  </resourceadapter>\n"
+                        + "</connector>\n");
+
+        // the stub classes of the tests: RarMavenProjectStub2 reaches all of them but RarMavenProjectStub3
+        String stubs = "org/apache/maven/plugins/rar/stubs/";
+        File repository = new File(getBasedir(), "target/unit/basic-rar-shrink/repository");
+        writeClassJar(
+                new File(repository, "maven-artifact01-1.0-SNAPSHOT.jar"),
+                stubs + "RarMavenProjectStub2.class",
+                stubs + "RarMavenProjectStub.class",
+                stubs + "RarMavenProjectStub3.class",
+                stubs + "RarArtifactStub.class",
+                stubs + "RarArtifactStub$1.class",
+                stubs + "ArtifactHandlerStub.class");
+        writeClassJar(
+                new File(repository, "maven-artifact02-1.0-SNAPSHOT.jar"),
+                stubs + "RarMavenProjectStub4.class",
+                "org/apache/maven/plugins/rar/ServiceFiles.class",
+                "META-INF/beans.xml=<beans/>");
+
+        mojo.execute();
+
+        File workDir = getWorkDirectory(mojo);
+        Map<String, String> library = readEntries(new File(workDir, "maven-artifact01-1.0-SNAPSHOT.jar"));
+        assertFalse(library.containsKey(stubs + "RarMavenProjectStub3.class"));
+        assertTrue(library.containsKey(stubs + "RarMavenProjectStub2.class"));
+        assertTrue(library.containsKey(stubs + "RarMavenProjectStub.class"));
+        assertTrue(library.containsKey(stubs + "RarArtifactStub.class"));
+        assertTrue(library.containsKey(stubs + "RarArtifactStub$1.class"));
+        assertTrue(library.containsKey(stubs + "ArtifactHandlerStub.class"));
+        assertEquals("kept", library.get("readme.txt"));
+        // the RAR holds the shrunk jar
+        assertEquals(
+                FileUtils.fileRead(new File(workDir, "maven-artifact01-1.0-SNAPSHOT.jar"), "ISO-8859-1"),
+                readEntries(getRarFile(mojo)).get("maven-artifact01-1.0-SNAPSHOT.jar"));
+
+        Map<String, String> rootLibrary = readEntries(new File(workDir, "maven-artifact02-1.0-SNAPSHOT.jar"));
+        // kept as a root of the configuration
+        assertTrue(rootLibrary.containsKey(stubs + "RarMavenProjectStub4.class"));
+        // kept as a class of a CDI bean archive
+        assertTrue(rootLibrary.containsKey("org/apache/maven/plugins/rar/ServiceFiles.class"));
+
+        // the staged jar is replaced, the dependency itself is left alone
+        assertTrue(readEntries(new File(repository, "maven-artifact01-1.0-SNAPSHOT.jar"))
+                .containsKey(stubs + "RarMavenProjectStub3.class"));
+
+        // a class that cannot be read may refer to any class, so none is removed
+        writeClassJar(
+                new File(repository, "maven-artifact02-1.0-SNAPSHOT.jar"),
+                stubs + "RarMavenProjectStub4.class",
+                "org/example/Unreadable.class=not a class");
+        FileUtils.deleteDirectory(workDir);
+
+        mojo = lookupRarMojo("rar", "basic-rar-shrink");
+        List<String> warnings = recordWarnings(mojo);
+
+        mojo.execute();
+
+        assertTrue(warnings.toString(), warnings.get(0).startsWith("Could not read org/example/Unreadable.class"));
+        library = readEntries(new File(workDir, "maven-artifact01-1.0-SNAPSHOT.jar"));
+        assertTrue(library.containsKey(stubs + "RarMavenProjectStub3.class"));
+    }
+
+    /**
+     * Looks up a goal configured by <code>unit/&lt;name&gt;/plugin-config.xml</code>.
+     */
+    private RarMojo lookupRarMojo(String goal, String name) throws Exception {
+        File testPom = new File(getBasedir(), "target/test-classes/unit/" + name + "/plugin-config.xml");
+
+        RarMojo mojo = (RarMojo) lookupMojo(goal, testPom);
+
+        assertNotNull(mojo);
+
+        return mojo;
+    }
+
+    private File getSourceDirectory(RarMojo mojo) throws Exception {
+        return (File) getVariableValueFromObject(mojo, "rarSourceDirectory");
+    }
+
+    private File getRaXmlFile(RarMojo mojo) throws Exception {
+        return (File) getVariableValueFromObject(mojo, "raXmlFile");
+    }
+
+    private File getWorkDirectory(RarMojo mojo) throws Exception {
+        return new File((String) getVariableValueFromObject(mojo, "workDirectory"));
+    }
+
+    private File getOutputDirectory(RarMojo mojo) throws Exception {
+        return (File) getVariableValueFromObject(mojo, "outputDirectory");
+    }
+
+    private File getRarFile(RarMojo mojo) throws Exception {
+        return new File(getOutputDirectory(mojo), getVariableValueFromObject(mojo, "finalName") + ".rar");
+    }
+
+    /**
+     * Places the generated jar file of the project in the output directory.
+     *
+     * @return the copied jar
+     */
+    private File copyProjectJar(RarMojo mojo) throws Exception {
+        File projectJar = new File(getBasedir(), "src/test/resources/unit/basic-rar-test/target/test-rar.jar");
+        File copy = new File(getOutputDirectory(mojo), getVariableValueFromObject(mojo, "finalName") + ".jar");
+        FileUtils.copyFile(projectJar, copy);
+        return copy;
+    }
+
+    /**
+     * @return the file of a dependency of {@link org.apache.maven.plugins.rar.stubs.RarMavenProjectStub}
+     */
+    private static File getDependencyFile(String artifactId) {
+        return new File(
+                getBasedir(),
+                "src/test/remote-repo/org/apache/maven/test/" + artifactId + "/1.0-SNAPSHOT/" + artifactId
+                        + "-1.0-SNAPSHOT.jar");
+    }
+
+    private static List<String> recordInfo(RarMojo mojo) {
+        List<String> messages = Collections.synchronizedList(new ArrayList<>());
+        mojo.setLog(new SystemStreamLog() {
+            @Override
+            public void info(CharSequence content) {
+                messages.add(content.toString());
+            }
+        });
+        return messages;
+    }
+
+    private static List<String> recordWarnings(RarMojo mojo) {
+        List<String> warnings = new ArrayList<>();
+        mojo.setLog(new SystemStreamLog() {
+            @Override
+            public void warn(CharSequence content) {
+                warnings.add(content.toString());
+            }
+        });
+        return warnings;
+    }
+
+    private static void assertSameContent(File expected, File actual) throws Exception {
+        assertTrue(actual.getPath(), actual.isFile());
+        assertTrue(
+                actual.getPath(),
+                Arrays.equals(Files.readAllBytes(expected.toPath()), Files.readAllBytes(actual.toPath())));
+    }
+
+    /**
+     * @return the content of the entries of an archive, as ISO-8859-1 so that binary content compares as well, keyed
+     *         by their name; directories have an empty content
+     */
+    private static Map<String, String> readEntries(File archive) throws Exception {
+        assertTrue(archive.getPath(), archive.isFile());
+        Map<String, String> entries = new TreeMap<>();
+        try (ZipFile zip = new ZipFile(archive)) {
+            for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements(); ) {
+                ZipEntry entry = e.nextElement();
+                try (InputStream in = zip.getInputStream(entry)) {
+                    entries.put(entry.getName(), IOUtil.toString(in, "ISO-8859-1"));
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static void writeJar(File jar, String... entries) throws Exception {
+        jar.getParentFile().mkdirs();
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar.toPath()))) {
+            for (String entry : entries) {
+                int separator = entry.indexOf('=');
+                out.putNextEntry(new ZipEntry(separator < 0 ? entry : entry.substring(0, separator)));
+                if (separator >= 0) {
+                    out.write(entry.substring(separator + 1).getBytes(StandardCharsets.UTF_8));
+                }
+                out.closeEntry();
+            }
+        }
+    }
+
+    /**
+     * Writes a jar with classes of the test class path and a <code>readme.txt</code>.
+     *
+     * @param entries the classes of the jar, or further entries as <code>name=content</code>
+     */
+    private void writeClassJar(File jar, String... entries) throws Exception {
+        jar.getParentFile().mkdirs();
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar.toPath()))) {
+            for (String entry : entries) {
+                int separator = entry.indexOf('=');
+                out.putNextEntry(new ZipEntry(separator < 0 ? entry : entry.substring(0, separator)));
+                if (separator >= 0) {
+                    out.write(entry.substring(separator + 1).getBytes(StandardCharsets.UTF_8));
+                } else {
+                    try (InputStream in = getClass().getClassLoader().getResourceAsStream(entry)) {
+                        IOUtil.copy(in, out);
+                    }
+                }
+                out.closeEntry();
+            }
+            out.putNextEntry(new ZipEntry("readme.txt"));
+            out.write("kept".getBytes(StandardCharsets.UTF_8));
+            out.closeEntry();
+        }
+    }
+
     private int getSizeOfExpectedFiles(Enumeration<? extends ZipEntry> entries, List<String> expectedFiles) {
         while (entries.hasMoreElements()) {
             ZipEntry entry = entries.nextElement();
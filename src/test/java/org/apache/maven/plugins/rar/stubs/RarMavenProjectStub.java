@@ -21,7 +21,7 @@ package org.apache.maven.plugins.rar.stubs;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -106,7 +106,7 @@ public class RarMavenProjectStub extends MavenProject {
     }
 
     public Set<Artifact> getArtifacts() {
-        Set<Artifact> artifacts = new HashSet<>();
+        Set<Artifact> artifacts = new LinkedHashSet<>();
 
         artifacts.add(createArtifact("org.apache.maven.test", "maven-artifact01", "1.0-SNAPSHOT", false));
         artifacts.add(createArtifact("org.apache.maven.test", "maven-artifact02", "1.0-SNAPSHOT", false));
@@ -0,0 +1,40 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.maven.plugins.rar.stubs;
+
+import java.io.File;
+
+import org.apache.maven.artifact.Artifact;
+
+/**
+ * A project whose dependencies are jars the test writes to its own repository directory before running the mojo.
+ */
+public class RarMavenProjectStub4 extends RarMavenProjectStub2 {
+    /**
+     * The directory of the dependency jars, set by the configuration of the test.
+     */
+    private File repository;
+
+    @Override
+    protected Artifact createArtifact(String groupId, String artifactId, String version, boolean optional) {
+        Artifact artifact = super.createArtifact(groupId, artifactId, version, optional);
+        artifact.setFile(new File(repository, artifactId + "-" + version + ".jar"));
+        return artifact;
+    }
+}